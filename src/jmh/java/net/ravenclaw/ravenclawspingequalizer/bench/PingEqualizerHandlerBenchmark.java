@@ -0,0 +1,291 @@
+package net.ravenclaw.ravenclawspingequalizer.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.c2s.common.KeepAliveC2SPacket;
+import net.minecraft.network.packet.c2s.play.AcknowledgeReconfigurationC2SPacket;
+import net.minecraft.network.packet.c2s.query.QueryPingC2SPacket;
+import net.minecraft.network.packet.s2c.common.KeepAliveS2CPacket;
+import net.minecraft.network.packet.s2c.play.EnterReconfigurationS2CPacket;
+import net.minecraft.network.packet.s2c.query.PingResultS2CPacket;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerState;
+import net.ravenclaw.ravenclawspingequalizer.net.DelayLineMetrics;
+import net.ravenclaw.ravenclawspingequalizer.net.PingEqualizerChannelHandler;
+
+/**
+ * Hot-path benchmarks for {@link PingEqualizerChannelHandler}. The embedded benchmarks measure
+ * the per-packet cost of write() and channelRead() on the calling thread; the loop benchmarks
+ * run the handler on a real NIO event loop over a local channel, where delayed scenarios are
+ * bounded by the configured delay and the round trip shows how closely releases hit it.
+ *
+ * <p>Run with {@code ./gradlew jmh}; results are written as JSON to build/reports/jmh.
+ */
+public class PingEqualizerHandlerBenchmark {
+
+    private static final int PUMP_INTERVAL_MASK = 1023;
+    private static final int PROBE_INTERVAL_MASK = 15;
+    // keeps the pending-probe table small in the ping mix scenarios
+    private static final int PROBE_ID_MASK = 63;
+    private static final long MAX_IN_FLIGHT = 4096;
+
+    public enum Scenario {
+        OFF, ADD_0, ADD_50, ADD_200, TOTAL, BYPASS, PING_MIX;
+
+        void apply() {
+            PingEqualizerState state = PingEqualizerState.getInstance();
+            switch (this) {
+                case OFF -> state.setOff();
+                case ADD_0 -> state.setAddPing(0);
+                case ADD_50, BYPASS, PING_MIX -> state.setAddPing(50);
+                case ADD_200 -> state.setAddPing(200);
+                case TOTAL -> state.setTotalPing(100);
+            }
+        }
+
+        Packet<?> outbound(long sequence) {
+            if (this == BYPASS) {
+                return AcknowledgeReconfigurationC2SPacket.INSTANCE;
+            }
+            if (this == PING_MIX && (sequence & PROBE_INTERVAL_MASK) == 0) {
+                return new QueryPingC2SPacket(sequence & PROBE_ID_MASK);
+            }
+            return new KeepAliveC2SPacket(sequence);
+        }
+
+        Packet<?> inbound(long sequence) {
+            if (this == BYPASS) {
+                return EnterReconfigurationS2CPacket.INSTANCE;
+            }
+            if (this == PING_MIX && (sequence & PROBE_INTERVAL_MASK) == 0) {
+                return new PingResultS2CPacket(sequence & PROBE_ID_MASK);
+            }
+            return new KeepAliveS2CPacket(sequence);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmbeddedState {
+
+        @Param({"OFF", "ADD_0", "ADD_50", "ADD_200", "TOTAL", "BYPASS", "PING_MIX"})
+        public Scenario scenario;
+
+        EmbeddedChannel channel;
+        long sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            scenario.apply();
+            DelayLineMetrics.resetLateness();
+            channel = new EmbeddedChannel();
+            channel.pipeline().addLast(PingEqualizerChannelHandler.HANDLER_NAME, new PingEqualizerChannelHandler());
+            // a failing handlerAdded makes Netty drop the handler, which would benchmark an empty pipeline
+            channel.checkException();
+            if (channel.pipeline().get(PingEqualizerChannelHandler.HANDLER_NAME) == null) {
+                throw new IllegalStateException("handler was not installed on the embedded channel");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            channel.finishAndReleaseAll();
+            PingEqualizerState.getInstance().setOff();
+        }
+
+        long next() {
+            long current = sequence++;
+            if ((current & PUMP_INTERVAL_MASK) == 0) {
+                channel.runPendingTasks();
+                channel.outboundMessages().clear();
+                channel.inboundMessages().clear();
+            }
+            return current;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LoopState {
+
+        @Param({"OFF", "ADD_0", "ADD_50", "ADD_200", "TOTAL", "BYPASS", "PING_MIX"})
+        public Scenario scenario;
+
+        final AtomicLong serverReceived = new AtomicLong();
+        volatile long lastEcho = -1;
+
+        EventLoopGroup group;
+        Channel server;
+        Channel client;
+        long sent;
+        long probe;
+
+        @Setup(Level.Trial)
+        public void setUp() throws InterruptedException {
+            scenario.apply();
+            DelayLineMetrics.resetLateness();
+            group = new NioEventLoopGroup(1);
+            LocalAddress address = new LocalAddress("ping-equalizer-bench-" + scenario);
+            server = new ServerBootstrap()
+                    .group(group)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInitializer<LocalChannel>() {
+                        @Override
+                        protected void initChannel(LocalChannel ch) {
+                            ch.pipeline().addLast(new EchoServerHandler(LoopState.this));
+                        }
+                    })
+                    .bind(address).sync().channel();
+            client = new Bootstrap()
+                    .group(group)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInitializer<LocalChannel>() {
+                        @Override
+                        protected void initChannel(LocalChannel ch) {
+                            ch.pipeline().addLast(PingEqualizerChannelHandler.HANDLER_NAME, new PingEqualizerChannelHandler());
+                            ch.pipeline().addLast(new EchoClientHandler(LoopState.this));
+                        }
+                    })
+                    .connect(address).sync().channel();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            client.close().sync();
+            server.close().sync();
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+            PingEqualizerState.getInstance().setOff();
+        }
+    }
+
+    /**
+     * Release accuracy of the delay lines, reported by JMH next to the round-trip samples as
+     * secondary results. Event counters are summed over iterations, so these are counts rather
+     * than percentiles: late over released is the share of releases more than 1ms past deadline.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ReleaseAccuracy {
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            DelayLineMetrics.resetLateness();
+        }
+
+        public long outboundReleased() {
+            return DelayLineMetrics.releaseCount(true);
+        }
+
+        public long outboundLate() {
+            return DelayLineMetrics.lateReleaseCount(true);
+        }
+
+        public long inboundReleased() {
+            return DelayLineMetrics.releaseCount(false);
+        }
+
+        public long inboundLate() {
+            return DelayLineMetrics.lateReleaseCount(false);
+        }
+    }
+
+    private static final class EchoServerHandler extends ChannelInboundHandlerAdapter {
+
+        private final LoopState state;
+
+        EchoServerHandler(LoopState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            state.serverReceived.incrementAndGet();
+            if (msg instanceof QueryPingC2SPacket query) {
+                ctx.writeAndFlush(new PingResultS2CPacket(query.getStartTime()), ctx.voidPromise());
+            }
+        }
+    }
+
+    private static final class EchoClientHandler extends ChannelInboundHandlerAdapter {
+
+        private final LoopState state;
+
+        EchoClientHandler(LoopState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof PingResultS2CPacket result) {
+                state.lastEcho = result.startTime();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void embeddedWrite(EmbeddedState state) {
+        long sequence = state.next();
+        state.channel.writeAndFlush(state.scenario.outbound(sequence), state.channel.voidPromise());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void embeddedRead(EmbeddedState state) {
+        long sequence = state.next();
+        state.channel.pipeline().fireChannelRead(state.scenario.inbound(sequence));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void loopWrite(LoopState state) {
+        long sequence = state.sent++;
+        state.client.writeAndFlush(state.scenario.outbound(sequence), state.client.voidPromise());
+        while (state.sent - state.serverReceived.get() > MAX_IN_FLIGHT) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * One query ping out through the outbound line and its result back through the inbound line;
+     * the sampled time minus the configured delay is the release inaccuracy, and the lateness of
+     * each line is reported alongside.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long loopRoundTrip(LoopState state, ReleaseAccuracy accuracy) {
+        long startTime = ++state.probe;
+        state.client.writeAndFlush(new QueryPingC2SPacket(startTime), state.client.voidPromise());
+        while (state.lastEcho != startTime) {
+            Thread.onSpinWait();
+        }
+        return startTime;
+    }
+}
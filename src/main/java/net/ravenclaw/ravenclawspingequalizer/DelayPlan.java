@@ -0,0 +1,19 @@
+package net.ravenclaw.ravenclawspingequalizer;
+
+/**
+ * Immutable snapshot of the delay the I/O path should apply right now. Only the state's owner
+ * thread builds these, and each one is published with a single volatile store, so a packet
+ * handler that reads one reference always sees a consistent mode and split.
+ */
+public record DelayPlan(PingEqualizerState.Mode mode, long outboundNanos, long inboundNanos, long epoch) {
+
+    public static final DelayPlan DISABLED = new DelayPlan(PingEqualizerState.Mode.OFF, 0, 0, 0);
+
+    public boolean isOff() {
+        return mode == PingEqualizerState.Mode.OFF;
+    }
+
+    public long totalNanos() {
+        return outboundNanos + inboundNanos;
+    }
+}
@@ -0,0 +1,236 @@
+package net.ravenclaw.ravenclawspingequalizer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import net.fabricmc.loader.api.FabricLoader;
+
+public final class PingEqualizerConfig {
+
+    public enum FlushPolicy { IMMEDIATE, COALESCE, PER_PASS }
+
+    public enum BaseEstimator { SMOOTHED, MIN_RTT, KALMAN }
+
+    private static final String FILE_NAME = "ravenclawspingequalizer.properties";
+
+    private static volatile PingEqualizerConfig current = new PingEqualizerConfig(new Properties());
+
+    private final boolean precisionRelease;
+    private final boolean outboundFrameDelay;
+    private final boolean inboundRawFrameDelay;
+    private final FlushPolicy flushPolicy;
+    private final long flushCoalesceNanos;
+    private final Map<String, Double> packetDelayFractions;
+    private final long outboundHighWatermarkBytes;
+    private final long outboundLowWatermarkBytes;
+    private final long inboundHighWatermarkBytes;
+    private final long inboundLowWatermarkBytes;
+    private final long delayQuantumNanos;
+    private final long releaseRampNanos;
+    private final int releaseBurstPackets;
+    private final long drainBudgetNanos;
+    private final int drainBudgetPackets;
+    private final BaseEstimator baseEstimator;
+    private final long minRttWindowNanos;
+    private final int baseFilterWindow;
+    private final double baseFilterPercentile;
+
+    private PingEqualizerConfig(Properties props) {
+        this.precisionRelease = readBoolean(props, "precisionRelease", false);
+        this.outboundFrameDelay = readBoolean(props, "outboundFrameDelay", false);
+        this.inboundRawFrameDelay = readBoolean(props, "inboundRawFrameDelay", false);
+        this.flushPolicy = readEnum(props, "flushPolicy", FlushPolicy.class, FlushPolicy.PER_PASS);
+        this.flushCoalesceNanos = TimeUnit.MICROSECONDS.toNanos(readLong(props, "flushCoalesceMicros", 500, 0, 10_000));
+        this.packetDelayFractions = readFractions(props, "packetDelayFractions");
+        this.outboundHighWatermarkBytes = readLong(props, "outboundHighWatermarkKb", 1024, 16, 1 << 20) * 1024;
+        this.outboundLowWatermarkBytes = Math.min(outboundHighWatermarkBytes,
+                readLong(props, "outboundLowWatermarkKb", 512, 0, 1 << 20) * 1024);
+        this.inboundHighWatermarkBytes = readLong(props, "inboundHighWatermarkKb", 8192, 16, 1 << 20) * 1024;
+        this.inboundLowWatermarkBytes = Math.min(inboundHighWatermarkBytes,
+                readLong(props, "inboundLowWatermarkKb", 4096, 0, 1 << 20) * 1024);
+        this.delayQuantumNanos = TimeUnit.MICROSECONDS.toNanos(readLong(props, "delayQuantumMicros", 0, 0, 10_000));
+        this.releaseRampNanos = TimeUnit.MILLISECONDS.toNanos(readLong(props, "releaseRampMillis", 100, 0, 2_000));
+        this.releaseBurstPackets = (int) readLong(props, "releaseBurstPackets", 32, 1, 4096);
+        this.drainBudgetNanos = TimeUnit.MICROSECONDS.toNanos(readLong(props, "drainBudgetMicros", 500, 50, 50_000));
+        this.drainBudgetPackets = (int) readLong(props, "drainBudgetPackets", 256, 1, 65_536);
+        this.baseEstimator = readEnum(props, "baseEstimator", BaseEstimator.class, BaseEstimator.SMOOTHED);
+        this.minRttWindowNanos = TimeUnit.MILLISECONDS.toNanos(readLong(props, "minRttWindowMillis", 10_000, 1_000, 300_000));
+        this.baseFilterWindow = (int) readLong(props, "baseFilterWindow", 5, 1, 1024);
+        this.baseFilterPercentile = readLong(props, "baseFilterPercentile", 50, 0, 100) / 100.0;
+    }
+
+    public static PingEqualizerConfig get() {
+        return current;
+    }
+
+    public static void load() {
+        Properties props = new Properties();
+        try {
+            Path file = FabricLoader.getInstance().getConfigDir().resolve(FILE_NAME);
+            if (Files.exists(file)) {
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    props.load(reader);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            org.slf4j.LoggerFactory.getLogger("PingEqualizer")
+                .warn("Failed to read {}, using defaults: {}", FILE_NAME, e.getMessage());
+        }
+        current = new PingEqualizerConfig(props);
+    }
+
+    public boolean isPrecisionRelease() {
+        return precisionRelease;
+    }
+
+    public boolean isOutboundFrameDelay() {
+        return outboundFrameDelay;
+    }
+
+    public boolean isInboundRawFrameDelay() {
+        return inboundRawFrameDelay;
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public long getFlushCoalesceNanos() {
+        return flushCoalesceNanos;
+    }
+
+    /**
+     * Step the published delay is rounded to; 0 publishes the controller's delay unrounded.
+     */
+    public long getDelayQuantumNanos() {
+        return delayQuantumNanos;
+    }
+
+    /**
+     * Time over which a backlog larger than {@link #getReleaseBurstPackets()} is spread out when
+     * a drop in the delay makes it due at once, or when queues are flushed on a mode or phase
+     * change. 0 releases backlogs in a single pass.
+     */
+    public long getReleaseRampNanos() {
+        return releaseRampNanos;
+    }
+
+    public int getReleaseBurstPackets() {
+        return releaseBurstPackets;
+    }
+
+    /**
+     * Longest a single drain pass may hold the event loop, and the most messages it may release,
+     * before handing the loop back and resuming from a fresh task.
+     */
+    public long getDrainBudgetNanos() {
+        return drainBudgetNanos;
+    }
+
+    public int getDrainBudgetPackets() {
+        return drainBudgetPackets;
+    }
+
+    /**
+     * Filter turning base-ping samples into the estimate TOTAL mode steers by. Defaults to
+     * {@link BaseEstimator#SMOOTHED}, the long-standing behaviour; {@link BaseEstimator#MIN_RTT}
+     * and {@link BaseEstimator#KALMAN} are opt-in through {@code baseEstimator} in the config file.
+     */
+    public BaseEstimator getBaseEstimator() {
+        return baseEstimator;
+    }
+
+    /**
+     * How long a sample can stay the minimum for {@link BaseEstimator#MIN_RTT}; a rise in RTT
+     * shows up once the lower samples have aged out.
+     */
+    public long getMinRttWindowNanos() {
+        return minRttWindowNanos;
+    }
+
+    /**
+     * Sample count and percentile (0..1) of the sliding pre-filter in front of
+     * {@link BaseEstimator#SMOOTHED}; the defaults give a five-sample median.
+     */
+    public int getBaseFilterWindow() {
+        return baseFilterWindow;
+    }
+
+    public double getBaseFilterPercentile() {
+        return baseFilterPercentile;
+    }
+
+    public long getHighWatermarkBytes(boolean outbound) {
+        return outbound ? outboundHighWatermarkBytes : inboundHighWatermarkBytes;
+    }
+
+    public long getLowWatermarkBytes(boolean outbound) {
+        return outbound ? outboundLowWatermarkBytes : inboundLowWatermarkBytes;
+    }
+
+    /**
+     * Share of the direction's delay applied to packets of type {@code packetId}
+     * (for example {@code minecraft:move_player_pos}); 0 keeps ordering but adds no delay.
+     */
+    public double getPacketDelayFraction(String packetId, double fallback) {
+        Double fraction = packetDelayFractions.get(packetId);
+        return fraction == null ? fallback : fraction;
+    }
+
+    private static Map<String, Double> readFractions(Properties props, String key) {
+        Map<String, Double> fractions = new HashMap<>();
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return fractions;
+        }
+        for (String entry : value.split(",")) {
+            int split = entry.lastIndexOf('=');
+            if (split <= 0) {
+                continue;
+            }
+            try {
+                double fraction = Double.parseDouble(entry.substring(split + 1).trim());
+                fractions.put(entry.substring(0, split).trim(), Math.max(0.0, Math.min(1.0, fraction)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return fractions;
+    }
+
+    private static long readLong(Properties props, String key, long fallback, long min, long max) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Math.max(min, Math.min(max, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static <E extends Enum<E>> E readEnum(Properties props, String key, Class<E> type, E fallback) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    private static boolean readBoolean(Properties props, String key, boolean fallback) {
+        String value = props.getProperty(key);
+        return value == null ? fallback : Boolean.parseBoolean(value.trim());
+    }
+}
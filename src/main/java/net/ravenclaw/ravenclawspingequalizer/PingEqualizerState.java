@@ -1,8 +1,13 @@
 package net.ravenclaw.ravenclawspingequalizer;
 
 import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.network.ClientPlayNetworkHandler;
@@ -10,193 +15,464 @@ import net.minecraft.client.network.PlayerListEntry;
 import net.minecraft.network.packet.c2s.query.QueryPingC2SPacket;
 import net.minecraft.network.packet.s2c.query.PingResultS2CPacket;
 import net.minecraft.util.Util;
-
+import net.ravenclaw.ravenclawspingequalizer.estimator.BaseRttEstimator;
+
+/**
+ * Delay controller. All fields below are owned by the client thread: calls from other threads
+ * are posted to a mailbox that the owner drains each tick, and the I/O path only ever reads the
+ * published {@link DelayPlan} and the concurrent pending-probe table. Measurement and control
+ * run in nanoseconds; milliseconds only appear at the command and display edges.
+ */
 public class PingEqualizerState {
     public enum Mode { OFF, ADD, TOTAL }
 
     private static final PingEqualizerState INSTANCE = new PingEqualizerState();
 
-    private static final long BASE_PING_MAX_AGE_MS = 1500;
-    private static final long PING_REQUEST_COOLDOWN_MS = 1000;
-    private static final long DELAY_UPDATE_MIN_INTERVAL_MS = 150;
-    private static final long DELAY_HYSTERESIS_MS = 2;
-    private static final int DELAY_QUANTUM_MS = 2;
-    private static final double BASE_PING_ALPHA = 0.07;
-    private static final double BASE_PING_MAX_STEP_MS = 25.0;
-    private static final int BASE_FILTER_WINDOW = 5;
+    private static final long BASE_PING_MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+    // with recent passive samples the estimate is anchored, so probes can come less often
+    private static final long BASE_PING_MAX_AGE_PASSIVE_NANOS = TimeUnit.MILLISECONDS.toNanos(5000);
+    private static final long PASSIVE_SAMPLE_RECENT_NANOS = TimeUnit.SECONDS.toNanos(45);
+    private static final long PING_REQUEST_COOLDOWN_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+    // a reply this late is no use to the estimator, so the probe counts as lost
+    private static final long PROBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long DELAY_UPDATE_MIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(150);
+    private static final long DELAY_HYSTERESIS_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final long DELAY_LARGE_CHANGE_NANOS = TimeUnit.MILLISECONDS.toNanos(6);
+    private static final double DELAY_MIN_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final double DELAY_MAX_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(60);
+    private static final double DELAY_STEP_SCALE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final double DELAY_SNAP_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final double DELAY_SETTLED_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long CONVERGED_TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final double STEADY_ERROR_ALPHA = 0.1;
     private static final int MAX_ADDED_PING_MS = 400;
 
     private Mode currentMode = Mode.OFF;
     private int addAmount = 0;
     private int totalTarget = 0;
 
-    private long currentDelayMs = 0;
-    private double preciseDelay = 0;
-    private long lastDelayUpdateTimeMs = 0;
-
-    private int lastValidBasePing = 0;
-    private double smoothedBasePing = 0;
-    private long lastBasePingSampleTime = 0;
-    private long lastPingRequestTime = 0;
+    private long currentDelayNanos = 0;
+    private double preciseDelayNanos = 0;
+    private long lastDelayUpdateNanos = 0;
+
+    private long lastValidBaseNanos = 0;
+    // the config is loaded once at startup, so the estimator kind never changes afterwards
+    private final BaseRttEstimator baseEstimator = BaseRttEstimator.create(PingEqualizerConfig.get());
+    // nonzero while the estimate is settling after a sample fell outside the tolerance
+    private long convergeStartNanos = 0;
+    private long lastConvergeNanos = -1;
+    private double steadyErrorNanos = -1;
+    private long lastBaseSampleNanos = 0;
+    private long lastPingRequestNanos = 0;
     private boolean awaitingBasePing = false;
 
-    private long lastMeasuredRtt = -1;
+    private long lastMeasuredRttNanos = -1;
 
-    private final int[] baseEstimateWindow = new int[BASE_FILTER_WINDOW];
-    private int baseEstimateCount = 0;
-    private int baseEstimateIndex = 0;
+    // filled on the event loop of the connection that carries the probe; every access holds its monitor
+    private final ProbeTable pendingPings = new ProbeTable(PROBE_TIMEOUT_NANOS);
 
-    private static final class PendingPing {
-        long appliedDelayMs;
-        long actualSendTime = -1;
-        long arrivalTime = -1;
-        long outboundDelayMs = 0;
-        long inboundDelayMs = 0;
-    }
-    private final Map<Long, PendingPing> pendingPings = new ConcurrentHashMap<>();
+    // arrival of a server KeepAlive at the packet handler, plus any delay it already sat through;
+    // servers send one every 15s, so a small ring that overwrites its oldest slot never misses a reply
+    private static final int KEEP_ALIVE_SLOTS = 4;
+    private final long[] keepAliveIds = new long[KEEP_ALIVE_SLOTS];
+    private final long[] keepAliveArrivals = new long[KEEP_ALIVE_SLOTS];
+    private final long[] keepAlivePriorDelays = new long[KEEP_ALIVE_SLOTS];
+    private final boolean[] keepAlivePending = new boolean[KEEP_ALIVE_SLOTS];
+    private int nextKeepAliveSlot;
+    private double keepAliveResidenceNanos = -1;
+    private int lastServerLatencyMs = -1;
+    private long lastPassiveSampleNanos = 0;
+    private RttSource lastSampleSource;
+
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private volatile DelayPlan plan = DelayPlan.DISABLED;
+    private final List<Consumer<DelayPlan>> activationListeners = new CopyOnWriteArrayList<>();
 
     private PingEqualizerState() {}
     public static PingEqualizerState getInstance() { return INSTANCE; }
 
+    /**
+     * The current delay snapshot. Safe to call from any thread; the I/O path should read it once
+     * per packet.
+     */
+    public DelayPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Registers a listener told, on the owner thread, whenever the published plan switches
+     * between off and delaying.
+     */
+    public void addActivationListener(Consumer<DelayPlan> listener) {
+        activationListeners.add(listener);
+    }
+
+    public void removeActivationListener(Consumer<DelayPlan> listener) {
+        activationListeners.remove(listener);
+    }
+
     public void setOff() {
-        currentMode = Mode.OFF;
-        currentDelayMs = 0;
-        preciseDelay = 0;
-        resetMeasurementState();
+        runOnOwner(() -> {
+            currentMode = Mode.OFF;
+            currentDelayNanos = 0;
+            preciseDelayNanos = 0;
+            resetMeasurementState();
+        });
     }
 
     public void setAddPing(int amount) {
-        currentMode = Mode.ADD;
-        addAmount = clampAddedPing(amount);
-        preciseDelay = addAmount;
-        currentDelayMs = quantizeDelayMs(preciseDelay);
-        lastDelayUpdateTimeMs = Util.getMeasuringTimeMs();
+        runOnOwner(() -> {
+            currentMode = Mode.ADD;
+            addAmount = clampAddedPing(amount);
+            preciseDelayNanos = TimeUnit.MILLISECONDS.toNanos(addAmount);
+            currentDelayNanos = (long) preciseDelayNanos;
+            lastDelayUpdateNanos = System.nanoTime();
+        });
     }
 
     public void setTotalPing(int target) {
+        runOnOwner(() -> applyTotalPing(target));
+    }
+
+    private void applyTotalPing(int target) {
         int normalizedTarget = Math.max(0, target);
         boolean preserveDelay = currentMode == Mode.TOTAL && normalizedTarget == totalTarget;
 
         currentMode = Mode.TOTAL;
         totalTarget = normalizedTarget;
 
-        long now = Util.getMeasuringTimeMs();
+        long now = System.nanoTime();
         if (!preserveDelay) {
             resetMeasurementState();
         }
-        lastDelayUpdateTimeMs = now;
+        lastDelayUpdateNanos = now;
 
         MinecraftClient client = MinecraftClient.getInstance();
-        int baseEstimate = estimateInitialBasePing(client);
+        long baseEstimate = estimateInitialBaseNanos(client);
+        long targetNanos = TimeUnit.MILLISECONDS.toNanos(totalTarget);
         if (baseEstimate > 0) {
             seedBaseEstimate(baseEstimate);
-            double targetDelay = clampAddedPing((int) Math.max(0, totalTarget - baseEstimate));
-            if (!preserveDelay || targetDelay > preciseDelay) {
-                preciseDelay = targetDelay;
+            double targetDelay = clampAddedNanos(targetNanos - baseEstimate);
+            if (!preserveDelay || targetDelay > preciseDelayNanos) {
+                preciseDelayNanos = targetDelay;
             }
-            currentDelayMs = quantizeDelayMs(preciseDelay);
+            currentDelayNanos = Math.round(preciseDelayNanos);
         } else if (!preserveDelay) {
-            preciseDelay = clampAddedPing(totalTarget);
-            currentDelayMs = quantizeDelayMs(preciseDelay);
+            preciseDelayNanos = clampAddedNanos(targetNanos);
+            currentDelayNanos = Math.round(preciseDelayNanos);
         }
 
+        if (plan.isOff()) {
+            // the delay line is installed once this plan is published; onDelayLineInstalled probes then
+            return;
+        }
         ClientPlayNetworkHandler handler = client == null ? null : client.getNetworkHandler();
         if (handler != null) {
             requestPingIfNeeded(handler, true);
         }
     }
 
+    /**
+     * Called from the event loop once the handlers are in the pipeline after the plan turned on.
+     * A probe sent before that would bypass the handler that registers it and never be matched.
+     */
+    public void onDelayLineInstalled() {
+        runOnOwner(() -> {
+            if (currentMode != Mode.TOTAL) {
+                return;
+            }
+            MinecraftClient client = MinecraftClient.getInstance();
+            ClientPlayNetworkHandler handler = client == null ? null : client.getNetworkHandler();
+            if (handler != null) {
+                requestPingIfNeeded(handler, true);
+            }
+        });
+    }
+
     public void suspendForProtocolChange() {
-        resetMeasurementState();
+        runOnOwner(this::resetMeasurementState);
     }
 
     public void prepareForNewPlaySession() {
-        resetMeasurementState();
-        if (currentMode == Mode.ADD) {
-            preciseDelay = addAmount;
-            currentDelayMs = quantizeDelayMs(preciseDelay);
-            lastDelayUpdateTimeMs = Util.getMeasuringTimeMs();
-        }
+        runOnOwner(() -> {
+            resetMeasurementState();
+            if (currentMode == Mode.ADD) {
+                preciseDelayNanos = TimeUnit.MILLISECONDS.toNanos(addAmount);
+                currentDelayNanos = (long) preciseDelayNanos;
+                lastDelayUpdateNanos = System.nanoTime();
+            }
+        });
     }
 
     public void onPingSent(long startTime) {
-        if (currentMode == Mode.OFF) return;
-        PendingPing pending = new PendingPing();
-        pending.appliedDelayMs = currentDelayMs;
-        pending.outboundDelayMs = getOutboundDelayPortion();
-        pending.inboundDelayMs = getInboundDelayPortion();
-        pendingPings.put(startTime, pending);
-        lastPingRequestTime = Util.getMeasuringTimeMs();
-        awaitingBasePing = true;
+        DelayPlan current = plan;
+        if (current.isOff()) return;
+        long sentAt = System.nanoTime();
+        synchronized (pendingPings) {
+            ProbeTable.Probe pending = pendingPings.insert(startTime, sentAt);
+            pending.appliedDelayNanos = current.totalNanos();
+            pending.outboundDelayNanos = current.outboundNanos();
+            pending.inboundDelayNanos = current.inboundNanos();
+        }
+        runOnOwner(() -> {
+            lastPingRequestNanos = sentAt;
+            awaitingBasePing = true;
+        });
+    }
+
+    public void onKeepAliveReceived(long id, long arrivalNanos, long priorDelayNanos) {
+        if (plan.isOff()) return;
+        synchronized (keepAliveIds) {
+            int slot = nextKeepAliveSlot;
+            nextKeepAliveSlot = (slot + 1) % KEEP_ALIVE_SLOTS;
+            keepAliveIds[slot] = id;
+            keepAliveArrivals[slot] = arrivalNanos;
+            keepAlivePriorDelays[slot] = priorDelayNanos;
+            keepAlivePending[slot] = true;
+        }
+    }
+
+    /**
+     * Completes a KeepAlive's residence on the client: everything between the server's send and
+     * its receipt of our reply that the server's latency figure counts but the network does not.
+     */
+    public void onKeepAliveReplySent(long id, long sentNanos) {
+        long residence = takeKeepAliveResidence(id, sentNanos);
+        if (residence < 0) {
+            return;
+        }
+        runOnOwner(() -> applyKeepAliveResidence(residence));
     }
 
-    public void onPingActuallySent(long startTime) {
-        PendingPing p = pendingPings.get(startTime);
-        if (p != null) {
-            p.actualSendTime = Util.getMeasuringTimeMs();
+    private long takeKeepAliveResidence(long id, long sentNanos) {
+        synchronized (keepAliveIds) {
+            for (int slot = 0; slot < KEEP_ALIVE_SLOTS; slot++) {
+                if (keepAlivePending[slot] && keepAliveIds[slot] == id) {
+                    keepAlivePending[slot] = false;
+                    return Math.max(0, sentNanos - keepAliveArrivals[slot]) + keepAlivePriorDelays[slot];
+                }
+            }
         }
+        return -1;
     }
 
-    public void onPingArrived(long startTime) {
-        PendingPing p = pendingPings.get(startTime);
-        if (p != null) {
-            p.arrivalTime = Util.getMeasuringTimeMs();
+    private void applyKeepAliveResidence(long residenceNanos) {
+        // mirrors the server's own 3:1 latency smoothing so both figures cover the same exchanges
+        keepAliveResidenceNanos = keepAliveResidenceNanos < 0
+                ? residenceNanos
+                : (keepAliveResidenceNanos * 3 + residenceNanos) / 4;
+    }
+
+    /**
+     * Turns a fresh server-reported latency for our own player into a base sample by taking out
+     * the residence the equalizer and the client added to the KeepAlives behind it.
+     */
+    private void samplePassiveLatency(MinecraftClient client, ClientPlayNetworkHandler handler, long now) {
+        if (keepAliveResidenceNanos < 0) {
+            return;
+        }
+        PlayerListEntry self = handler.getPlayerListEntry(client.player.getUuid());
+        if (self == null || self.getLatency() <= 0 || self.getLatency() == lastServerLatencyMs) {
+            return;
         }
+        boolean first = lastServerLatencyMs < 0;
+        lastServerLatencyMs = self.getLatency();
+        if (first) {
+            // may predate any residence we measured, so only use values that change afterwards
+            return;
+        }
+        long reportedNanos = TimeUnit.MILLISECONDS.toNanos(lastServerLatencyMs);
+        long estimatedBase = Math.max(0, reportedNanos - Math.round(keepAliveResidenceNanos));
+        lastPassiveSampleNanos = now;
+        applyBaseSample(reportedNanos, estimatedBase, now, RttSource.KEEP_ALIVE);
     }
 
-    public void handlePingResult(PingResultS2CPacket packet) {
-        PendingPing p = pendingPings.remove(packet.startTime());
-        if (p == null) {
+    /**
+     * A wire-to-handler round trip between a sequenced block interaction and its acknowledgement,
+     * with the equalizer's own delays already excluded. The ack waits for the end of the server
+     * tick, so it only tells us the base ping is no higher than this.
+     */
+    public void onSequenceAckSample(long rttNanos) {
+        if (plan.isOff()) return;
+        long now = System.nanoTime();
+        runOnOwner(() -> applySequenceAckSample(rttNanos, now));
+    }
+
+    private void applySequenceAckSample(long rttNanos, long now) {
+        if (rttNanos <= 0) {
             return;
         }
+        // a bound is not a measurement, so it leaves sample freshness and convergence alone
+        long estimate = baseEstimator.bound(rttNanos, now);
+        if (estimate > 0 && lastValidBaseNanos > 0) {
+            lastValidBaseNanos = estimate;
+        }
+    }
 
-        long now = Util.getMeasuringTimeMs();
-        long arriveTime = p.arrivalTime > 0 ? p.arrivalTime : now;
+    public void onPingWireSent(long startTime, long nanos) {
+        synchronized (pendingPings) {
+            ProbeTable.Probe p = pendingPings.get(startTime);
+            if (p != null) {
+                p.wireSentNanos = nanos;
+            }
+        }
+    }
+
+    public void onPingWireArrived(long startTime, long nanos) {
+        synchronized (pendingPings) {
+            ProbeTable.Probe p = pendingPings.get(startTime);
+            if (p != null) {
+                p.wireArrivalNanos = nanos;
+            }
+        }
+    }
 
-        long measuredRtt = Math.max(0, arriveTime - packet.startTime());
-        lastMeasuredRtt = measuredRtt;
+    public void onPingArrived(long startTime) {
+        synchronized (pendingPings) {
+            ProbeTable.Probe p = pendingPings.get(startTime);
+            if (p != null) {
+                p.arrivalNanos = System.nanoTime();
+            }
+        }
+    }
+
+    public void handlePingResult(PingResultS2CPacket packet) {
+        long now = System.nanoTime();
+        long measuredRtt;
+        long estimatedBase;
+        synchronized (pendingPings) {
+            ProbeTable.Probe p = pendingPings.get(packet.startTime());
+            if (p == null) {
+                return;
+            }
+            long arriveTime = p.arrivalNanos > 0 ? p.arrivalNanos : now;
+            measuredRtt = measureProbe(p, arriveTime);
+            estimatedBase = estimateProbeBase(p, arriveTime, measuredRtt);
+            pendingPings.remove(packet.startTime());
+        }
+        runOnOwner(() -> applyBaseSample(measuredRtt, estimatedBase, now, RttSource.PROBE));
+    }
 
-        long totalRecordedDelay = p.outboundDelayMs + p.inboundDelayMs;
-        long totalAppliedForEstimate = totalRecordedDelay > 0 ? totalRecordedDelay : p.appliedDelayMs;
+    private static long measureProbe(ProbeTable.Probe p, long arriveTime) {
+        // the echoed start time is on vanilla's millisecond clock, so time the probe with our own stamps
+        return Math.max(0, arriveTime - p.sentNanos);
+    }
 
-        long estimatedBase = Math.max(0, measuredRtt - totalAppliedForEstimate);
-        int filteredBase = pushBaseEstimate((int) estimatedBase);
+    private static long estimateProbeBase(ProbeTable.Probe p, long arriveTime, long measuredRtt) {
+        if (p.wireSentNanos > 0 || p.wireArrivalNanos > 0) {
+            // a wire stamp already excludes our delay and client-side codec work on its leg;
+            // only a leg without one falls back to the pipeline stamp minus the recorded delay
+            long egress = p.wireSentNanos > 0 ? p.wireSentNanos : p.sentNanos + p.outboundDelayNanos;
+            long ingress = p.wireArrivalNanos > 0 ? p.wireArrivalNanos : arriveTime - p.inboundDelayNanos;
+            return Math.max(0, ingress - egress);
+        }
+        long totalRecordedDelay = p.outboundDelayNanos + p.inboundDelayNanos;
+        long totalAppliedForEstimate = totalRecordedDelay > 0 ? totalRecordedDelay : p.appliedDelayNanos;
+        return Math.max(0, measuredRtt - totalAppliedForEstimate);
+    }
 
-        if (filteredBase <= 0) {
+    private void applyBaseSample(long measuredRttNanos, long estimatedBaseNanos, long now, RttSource source) {
+        lastMeasuredRttNanos = measuredRttNanos;
+        lastSampleSource = source;
+        if (estimatedBaseNanos <= 0) {
             awaitingBasePing = false;
             return;
         }
-
-        lastValidBasePing = filteredBase;
-
-        double candidate = filteredBase;
-        if (smoothedBasePing > 0) {
-            double lo = smoothedBasePing - BASE_PING_MAX_STEP_MS;
-            double hi = smoothedBasePing + BASE_PING_MAX_STEP_MS;
-            candidate = Math.max(lo, Math.min(hi, candidate));
+        long estimate = baseEstimator.update(estimatedBaseNanos, now, source);
+        if (estimate <= 0) {
+            awaitingBasePing = false;
+            return;
         }
-        smoothedBasePing = smoothedBasePing == 0
-                ? candidate
-                : smoothedBasePing * (1.0 - BASE_PING_ALPHA) + candidate * BASE_PING_ALPHA;
-        lastBasePingSampleTime = now;
+        trackConvergence(estimatedBaseNanos, estimate, now);
+        lastValidBaseNanos = estimate;
+        lastBaseSampleNanos = now;
         awaitingBasePing = false;
     }
 
+    /**
+     * Times how long the estimate takes to come back within tolerance of the samples after they
+     * move away from it, and tracks the mean residual while it is settled.
+     */
+    private void trackConvergence(long sampleNanos, long estimateNanos, long now) {
+        long error = Math.abs(sampleNanos - estimateNanos);
+        long tolerance = Math.max(CONVERGED_TOLERANCE_NANOS, Math.round(2 * steadyErrorNanos));
+        if (convergeStartNanos != 0) {
+            if (error <= tolerance) {
+                lastConvergeNanos = now - convergeStartNanos;
+                convergeStartNanos = 0;
+            }
+            return;
+        }
+        if (error > tolerance && steadyErrorNanos >= 0) {
+            convergeStartNanos = now;
+            return;
+        }
+        steadyErrorNanos = steadyErrorNanos < 0
+                ? error
+                : (1.0 - STEADY_ERROR_ALPHA) * steadyErrorNanos + STEADY_ERROR_ALPHA * error;
+    }
+
     public void tick(MinecraftClient client) {
+        drainMailbox();
         updateDelay(client);
+        publishPlan();
+    }
+
+    private static boolean isOwnerThread() {
+        MinecraftClient client = MinecraftClient.getInstance();
+        return client == null || client.isOnThread();
+    }
+
+    private void runOnOwner(Runnable action) {
+        if (!isOwnerThread()) {
+            mailbox.add(action);
+            return;
+        }
+        drainMailbox();
+        action.run();
+        publishPlan();
+    }
+
+    private void drainMailbox() {
+        Runnable action;
+        while ((action = mailbox.poll()) != null) {
+            action.run();
+        }
+    }
+
+    private void publishPlan() {
+        long totalNanos = quantizeDelay(currentDelayNanos, PingEqualizerConfig.get().getDelayQuantumNanos());
+        long outboundNanos = totalNanos / 2;
+        long inboundNanos = totalNanos - outboundNanos;
+        DelayPlan previous = plan;
+        if (previous.mode() == currentMode
+                && previous.outboundNanos() == outboundNanos
+                && previous.inboundNanos() == inboundNanos) {
+            return;
+        }
+        DelayPlan next = new DelayPlan(currentMode, outboundNanos, inboundNanos, previous.epoch() + 1);
+        plan = next;
+        if (previous.isOff() != next.isOff()) {
+            for (Consumer<DelayPlan> listener : activationListeners) {
+                listener.accept(next);
+            }
+        }
     }
 
     private boolean hasFreshBase(long now) {
-        return lastValidBasePing > 0 && now - lastBasePingSampleTime <= BASE_PING_MAX_AGE_MS;
+        long maxAge = lastPassiveSampleNanos > 0 && now - lastPassiveSampleNanos <= PASSIVE_SAMPLE_RECENT_NANOS
+                ? BASE_PING_MAX_AGE_PASSIVE_NANOS
+                : BASE_PING_MAX_AGE_NANOS;
+        return lastValidBaseNanos > 0 && now - lastBaseSampleNanos <= maxAge;
     }
 
-    private int getCalibratedBase() {
-        double candidate = smoothedBasePing > 0 ? smoothedBasePing : lastValidBasePing;
-        return (int) Math.round(candidate);
+    private long getCalibratedBaseNanos() {
+        long estimate = baseEstimator.estimateNanos();
+        return estimate > 0 ? estimate : lastValidBaseNanos;
     }
 
-    private int estimateInitialBasePing(MinecraftClient client) {
-        int best = getCalibratedBase();
+    private long estimateInitialBaseNanos(MinecraftClient client) {
+        long best = getCalibratedBaseNanos();
         if (client == null || client.player == null) {
             return best;
         }
@@ -206,41 +482,37 @@ public class PingEqualizerState {
         }
         PlayerListEntry self = handler.getPlayerListEntry(client.player.getUuid());
         if (self != null && self.getLatency() > 0) {
-            best = Math.max(best, self.getLatency());
+            best = Math.max(best, TimeUnit.MILLISECONDS.toNanos(self.getLatency()));
         }
         return best;
     }
 
-    private void seedBaseEstimate(int estimateMs) {
-        if (estimateMs <= 0) {
+    private void seedBaseEstimate(long estimateNanos) {
+        if (estimateNanos <= 0) {
             return;
         }
-        long now = Util.getMeasuringTimeMs();
-        lastValidBasePing = Math.max(lastValidBasePing, estimateMs);
-        if (smoothedBasePing <= 0) {
-            smoothedBasePing = estimateMs;
-        } else {
-            smoothedBasePing = Math.max(smoothedBasePing, estimateMs);
-        }
-        lastBasePingSampleTime = now;
+        long now = System.nanoTime();
+        lastValidBaseNanos = Math.max(lastValidBaseNanos, estimateNanos);
+        baseEstimator.seed(estimateNanos, now);
+        lastBaseSampleNanos = now;
     }
 
-    private int computeTargetPing(ClientPlayNetworkHandler handler, int basePing) {
+    private long computeTargetNanos(ClientPlayNetworkHandler handler, long baseNanos) {
         return switch (currentMode) {
-            case TOTAL -> totalTarget > 0 ? totalTarget : basePing;
+            case TOTAL -> totalTarget > 0 ? TimeUnit.MILLISECONDS.toNanos(totalTarget) : baseNanos;
             default -> -1;
         };
     }
 
     private void updateDelay(MinecraftClient client) {
         if (currentMode == Mode.OFF) {
-            currentDelayMs = 0;
+            currentDelayNanos = 0;
             return;
         }
 
         if (currentMode == Mode.ADD) {
-            preciseDelay = clampAddedPing(addAmount);
-            currentDelayMs = quantizeDelayMs(preciseDelay);
+            preciseDelayNanos = TimeUnit.MILLISECONDS.toNanos(clampAddedPing(addAmount));
+            currentDelayNanos = (long) preciseDelayNanos;
             return;
         }
 
@@ -255,73 +527,86 @@ public class PingEqualizerState {
             return;
         }
 
-        long now = Util.getMeasuringTimeMs();
+        long now = System.nanoTime();
 
+        samplePassiveLatency(client, handler, now);
         requestPingIfNeeded(handler, false);
 
         if (!hasFreshBase(now)) {
             return;
         }
 
-        int basePing = getCalibratedBase();
-        int targetPing = computeTargetPing(handler, basePing);
-        if (targetPing <= 0) {
+        long baseNanos = getCalibratedBaseNanos();
+        long targetNanos = computeTargetNanos(handler, baseNanos);
+        if (targetNanos <= 0) {
             return;
         }
 
-        long targetDelay = clampAddedPing((int) Math.max(0, targetPing - basePing));
+        long targetDelay = clampAddedNanos(targetNanos - baseNanos);
         adjustPreciseDelaySmoothly(targetDelay);
-        setCurrentDelayQuantized(now, quantizeDelayMs(preciseDelay));
+        setCurrentDelay(now, Math.round(preciseDelayNanos));
     }
 
     private void requestPingIfNeeded(ClientPlayNetworkHandler handler, boolean force) {
-        long now = Util.getMeasuringTimeMs();
+        long now = System.nanoTime();
         if (!force) {
             if (hasFreshBase(now)) {
                 return;
             }
-            if (awaitingBasePing && now - lastPingRequestTime < PING_REQUEST_COOLDOWN_MS) {
+            if (awaitingBasePing && now - lastPingRequestNanos < PING_REQUEST_COOLDOWN_NANOS) {
                 return;
             }
         }
-        handler.sendPacket(new QueryPingC2SPacket(now));
+        // the start time stays on vanilla's millisecond clock so the debug ping graph reads our echoes correctly
+        handler.sendPacket(new QueryPingC2SPacket(Util.getMeasuringTimeMs()));
     }
 
-    private void setCurrentDelayQuantized(long nowMs, long newDelayMs) {
-        long diff = Math.abs(newDelayMs - currentDelayMs);
+    private void setCurrentDelay(long now, long newDelayNanos) {
+        long diff = Math.abs(newDelayNanos - currentDelayNanos);
         if (diff == 0) {
             return;
         }
-        boolean largeChange = diff >= (DELAY_QUANTUM_MS * 3L);
-        boolean hysteresisSatisfied = diff >= DELAY_HYSTERESIS_MS;
-        boolean timeSatisfied = nowMs - lastDelayUpdateTimeMs >= DELAY_UPDATE_MIN_INTERVAL_MS;
+        boolean largeChange = diff >= DELAY_LARGE_CHANGE_NANOS;
+        boolean hysteresisSatisfied = diff >= DELAY_HYSTERESIS_NANOS;
+        boolean timeSatisfied = now - lastDelayUpdateNanos >= DELAY_UPDATE_MIN_INTERVAL_NANOS;
         if (largeChange || (hysteresisSatisfied && timeSatisfied)) {
-            currentDelayMs = newDelayMs;
-            lastDelayUpdateTimeMs = nowMs;
+            currentDelayNanos = newDelayNanos;
+            lastDelayUpdateNanos = now;
         }
     }
 
-    private static long quantizeDelayMs(double valueMs) {
-        if (valueMs <= 0) {
+    /**
+     * Optional output stage: rounds the published delay to the configured quantum, leaving the
+     * controller's own delay untouched.
+     */
+    private static long quantizeDelay(long delayNanos, long quantumNanos) {
+        if (delayNanos <= 0) {
             return 0;
         }
-        long rounded = Math.round(valueMs);
-        long q = DELAY_QUANTUM_MS;
-        long half = q / 2L;
-        long quantized = ((rounded + half) / q) * q;
-        return Math.max(0, quantized);
+        if (quantumNanos <= 0) {
+            return delayNanos;
+        }
+        return ((delayNanos + quantumNanos / 2) / quantumNanos) * quantumNanos;
     }
 
     private static int clampAddedPing(int amount) {
         return Math.min(MAX_ADDED_PING_MS, Math.max(0, amount));
     }
 
+    private static long clampAddedNanos(long nanos) {
+        return Math.min(TimeUnit.MILLISECONDS.toNanos(MAX_ADDED_PING_MS), Math.max(0, nanos));
+    }
+
+    private static int toMillis(double nanos) {
+        return (int) Math.round(nanos / 1_000_000.0);
+    }
+
     public String getStatusMessage() {
         if (currentMode == Mode.OFF) {
             return "Ping Equalizer: OFF";
         }
 
-        long now = Util.getMeasuringTimeMs();
+        long now = System.nanoTime();
         String modeStr = switch (currentMode) {
             case ADD -> "ADD +" + addAmount + "ms";
             case TOTAL -> "TOTAL " + totalTarget + "ms";
@@ -329,23 +614,39 @@ public class PingEqualizerState {
         };
 
         if (currentMode == Mode.ADD) {
-            return String.format("Ping Equalizer: %s | Added: %dms", modeStr, currentDelayMs);
+            return String.format("Ping Equalizer: %s | Added: %dms", modeStr, getCurrentDelayMs());
         }
 
         if (!hasFreshBase(now)) {
             return String.format("Ping Equalizer: %s | Measuring base ping...", modeStr);
         }
 
-        int base = (int) Math.round(smoothedBasePing);
-        int added = (int) currentDelayMs;
+        int base = toMillis(getCalibratedBaseNanos());
+        int added = getCurrentDelayMs();
         int total = base + added;
-        return String.format("Ping Equalizer: %s | Base: %dms | Added: %dms | Total: %dms", modeStr, base, added, total);
+        String source = lastSampleSource != null ? " (" + lastSampleSource.label() + ")" : "";
+        return String.format("Ping Equalizer: %s | Base: %dms%s | Added: %dms | Total: %dms | %s",
+                modeStr, base, source, added, total, describeEstimator(now));
+    }
+
+    private String describeEstimator(long now) {
+        String name = baseEstimator.kind().name().toLowerCase(Locale.ROOT);
+        String error = steadyErrorNanos >= 0 ? String.format("\u00B1%.1fms", steadyErrorNanos / 1_000_000.0) : "\u00B1?";
+        String convergence;
+        if (convergeStartNanos != 0) {
+            convergence = String.format("converging %.1fs", (now - convergeStartNanos) / 1e9);
+        } else if (lastConvergeNanos >= 0) {
+            convergence = String.format("converged in %.1fs", lastConvergeNanos / 1e9);
+        } else {
+            convergence = "settled";
+        }
+        return String.format("Estimator: %s %s, %s", name, error, convergence);
     }
 
     public String getServerSwitchStatusMessage() {
         return switch (currentMode) {
             case OFF -> "PE Status; OFF";
-            case ADD -> String.format("PE Status; ADD: %d ms", currentDelayMs);
+            case ADD -> String.format("PE Status; ADD: %d ms", getCurrentDelayMs());
             case TOTAL -> String.format("PE Status; Total: %d ms", totalTarget);
         };
     }
@@ -355,15 +656,15 @@ public class PingEqualizerState {
     }
 
     public int getCurrentDelayMs() {
-        return (int) currentDelayMs;
+        return toMillis(currentDelayNanos);
     }
 
     public int getBasePing() {
-        return lastValidBasePing;
+        return toMillis(lastValidBaseNanos);
     }
 
     public int getTotalPing() {
-        return lastValidBasePing + (int) currentDelayMs;
+        return toMillis(lastValidBaseNanos + currentDelayNanos);
     }
 
     public boolean isOffMode() {
@@ -378,70 +679,68 @@ public class PingEqualizerState {
         return currentMode == Mode.TOTAL && totalTarget == Math.max(0, amount);
     }
 
-    public long getOutboundDelayPortion() {
-        return currentDelayMs / 2;
-    }
-
-    public long getInboundDelayPortion() {
-        return currentDelayMs - getOutboundDelayPortion();
-    }
-
-    private void adjustPreciseDelaySmoothly(long targetDelayMs) {
-        double delta = targetDelayMs - preciseDelay;
+    private void adjustPreciseDelaySmoothly(long targetDelayNanos) {
+        double delta = targetDelayNanos - preciseDelayNanos;
         double distance = Math.abs(delta);
-        if (distance < 0.01) {
-            preciseDelay = targetDelayMs;
+        if (distance < DELAY_SETTLED_NANOS) {
+            preciseDelayNanos = targetDelayNanos;
             return;
         }
-        double minStep = 0.5;
-        double maxStep = 60.0;
-        double ratio = Math.min(distance / 20.0, 1.0);
+        double ratio = Math.min(distance / DELAY_STEP_SCALE_NANOS, 1.0);
         double scale = 0.3 + 0.7 * ratio;
         double step = distance * scale;
-        step = Math.min(distance, Math.max(minStep, Math.min(step, maxStep)));
-        preciseDelay += Math.copySign(step, delta);
-        if (Math.abs(targetDelayMs - preciseDelay) < 0.5) {
-            preciseDelay = targetDelayMs;
+        step = Math.min(distance, Math.max(DELAY_MIN_STEP_NANOS, Math.min(step, DELAY_MAX_STEP_NANOS)));
+        preciseDelayNanos += Math.copySign(step, delta);
+        if (Math.abs(targetDelayNanos - preciseDelayNanos) < DELAY_SNAP_NANOS) {
+            preciseDelayNanos = targetDelayNanos;
         }
     }
 
-    public void recordPingOutboundDelay(long startTime, long delayMs) {
-        PendingPing pending = pendingPings.get(startTime);
-        if (pending != null) {
-            pending.outboundDelayMs = delayMs;
+    public void recordPingOutboundDelay(long startTime, long delayNanos) {
+        synchronized (pendingPings) {
+            ProbeTable.Probe pending = pendingPings.get(startTime);
+            if (pending != null) {
+                pending.outboundDelayNanos = delayNanos;
+            }
         }
     }
 
-    public void recordPingInboundDelay(long startTime, long delayMs) {
-        PendingPing pending = pendingPings.get(startTime);
-        if (pending != null) {
-            pending.inboundDelayMs = delayMs;
+    public void recordPingInboundDelay(long startTime, long delayNanos) {
+        synchronized (pendingPings) {
+            ProbeTable.Probe pending = pendingPings.get(startTime);
+            if (pending != null) {
+                pending.inboundDelayNanos = delayNanos;
+            }
+        }
+    }
+
+    public String describeProbes() {
+        synchronized (pendingPings) {
+            return String.format("Probes: sent %d | answered %d | lost %d | in flight %d",
+                    pendingPings.sentCount(), pendingPings.answeredCount(),
+                    pendingPings.lostCount(), pendingPings.size());
         }
     }
 
     private void resetMeasurementState() {
-        pendingPings.clear();
+        synchronized (pendingPings) {
+            pendingPings.clear();
+        }
+        synchronized (keepAliveIds) {
+            Arrays.fill(keepAlivePending, false);
+        }
+        keepAliveResidenceNanos = -1;
+        lastServerLatencyMs = -1;
+        lastPassiveSampleNanos = 0;
+        lastSampleSource = null;
         awaitingBasePing = false;
-        lastPingRequestTime = 0;
-        lastValidBasePing = 0;
-        smoothedBasePing = 0;
-        lastBasePingSampleTime = 0;
-        lastMeasuredRtt = -1;
-        baseEstimateCount = 0;
-        baseEstimateIndex = 0;
-    }
-
-    private int pushBaseEstimate(int estimateMs) {
-        if (estimateMs <= 0) {
-            return -1;
-        }
-        baseEstimateWindow[baseEstimateIndex] = estimateMs;
-        baseEstimateIndex = (baseEstimateIndex + 1) % BASE_FILTER_WINDOW;
-        if (baseEstimateCount < BASE_FILTER_WINDOW) {
-            baseEstimateCount++;
-        }
-        int[] copy = Arrays.copyOf(baseEstimateWindow, baseEstimateCount);
-        Arrays.sort(copy);
-        return copy[baseEstimateCount / 2];
+        lastPingRequestNanos = 0;
+        lastValidBaseNanos = 0;
+        baseEstimator.reset();
+        convergeStartNanos = 0;
+        lastConvergeNanos = -1;
+        steadyErrorNanos = -1;
+        lastBaseSampleNanos = 0;
+        lastMeasuredRttNanos = -1;
     }
 }
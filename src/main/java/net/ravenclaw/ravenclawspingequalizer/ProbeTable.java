@@ -0,0 +1,200 @@
+package net.ravenclaw.ravenclawspingequalizer;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity open-addressing table from a probe's start time to a preallocated record, so
+ * tracking a probe neither boxes its key nor allocates. Probes that never come back are evicted
+ * once older than the timeout and counted as lost. Not thread-safe: callers hold the table's
+ * monitor.
+ */
+final class ProbeTable {
+
+    static final class Probe {
+        long key;
+        long insertedNanos;
+        long sentNanos;
+        long appliedDelayNanos;
+        long arrivalNanos;
+        // taken where the probe meets the socket: write completion and first read of the raw frame
+        long wireSentNanos;
+        long wireArrivalNanos;
+        long outboundDelayNanos;
+        long inboundDelayNanos;
+
+        private void reset(long key, long nowNanos) {
+            this.key = key;
+            this.insertedNanos = nowNanos;
+            this.sentNanos = nowNanos;
+            this.appliedDelayNanos = 0;
+            this.arrivalNanos = -1;
+            this.wireSentNanos = -1;
+            this.wireArrivalNanos = -1;
+            this.outboundDelayNanos = 0;
+            this.inboundDelayNanos = 0;
+        }
+    }
+
+    // probes go out about once a second, so a handful are ever in flight
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    // keeps probe chains short; past this the oldest probe is given up on
+    private static final int MAX_LIVE = CAPACITY / 2;
+
+    private final Probe[] slots = new Probe[CAPACITY];
+    private final boolean[] used = new boolean[CAPACITY];
+    private final long timeoutNanos;
+    private int size;
+    private long sent;
+    private long answered;
+    private long lost;
+
+    ProbeTable(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Probe();
+        }
+    }
+
+    /**
+     * Starts tracking {@code key}, first evicting probes past the timeout. Reuses the record if
+     * the key is already tracked.
+     */
+    Probe insert(long key, long nowNanos) {
+        evictExpired(nowNanos);
+        int index = indexOf(key);
+        if (index < 0) {
+            if (size >= MAX_LIVE) {
+                evictOldest();
+            }
+            index = home(key);
+            while (used[index]) {
+                index = (index + 1) & MASK;
+            }
+            used[index] = true;
+            size++;
+        }
+        sent++;
+        Probe probe = slots[index];
+        probe.reset(key, nowNanos);
+        return probe;
+    }
+
+    Probe get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : slots[index];
+    }
+
+    boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Stops tracking an answered probe; read its record first, as the slot is recycled.
+     */
+    void remove(long key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            delete(index);
+            answered++;
+        }
+    }
+
+    /**
+     * Drops every tracked probe; their replies would be ignored from here on, so they count as lost.
+     */
+    void clear() {
+        lost += size;
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long sentCount() {
+        return sent;
+    }
+
+    long answeredCount() {
+        return answered;
+    }
+
+    long lostCount() {
+        return lost;
+    }
+
+    private void evictExpired(long nowNanos) {
+        int index = 0;
+        while (index < CAPACITY) {
+            if (used[index] && nowNanos - slots[index].insertedNanos > timeoutNanos) {
+                delete(index);
+                lost++;
+                // deletion may have shifted a later entry into this slot, so look at it again
+                continue;
+            }
+            index++;
+        }
+    }
+
+    private void evictOldest() {
+        int oldest = -1;
+        for (int i = 0; i < CAPACITY; i++) {
+            if (used[i] && (oldest < 0 || slots[i].insertedNanos - slots[oldest].insertedNanos < 0)) {
+                oldest = i;
+            }
+        }
+        if (oldest >= 0) {
+            delete(oldest);
+            lost++;
+        }
+    }
+
+    private int indexOf(long key) {
+        int index = home(key);
+        while (used[index]) {
+            if (slots[index].key == key) {
+                return index;
+            }
+            index = (index + 1) & MASK;
+        }
+        return -1;
+    }
+
+    /**
+     * Linear-probing delete by backward shift, so lookups never need tombstones. Records are
+     * swapped rather than copied to keep every slot's preallocated object.
+     */
+    private void delete(int index) {
+        used[index] = false;
+        size--;
+        int hole = index;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & MASK;
+            if (!used[next]) {
+                return;
+            }
+            int home = home(slots[next].key);
+            // an entry may fill the hole only if its home is not cyclically within (hole, next]
+            boolean reachable = hole <= next
+                    ? home <= hole || home > next
+                    : home <= hole && home > next;
+            if (reachable) {
+                Probe moved = slots[next];
+                slots[next] = slots[hole];
+                slots[hole] = moved;
+                used[hole] = true;
+                used[next] = false;
+                hole = next;
+            }
+        }
+    }
+
+    private static int home(long key) {
+        // start times are clock readings, so spread them before masking
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & MASK;
+    }
+}
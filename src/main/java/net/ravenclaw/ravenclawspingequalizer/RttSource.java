@@ -0,0 +1,26 @@
+package net.ravenclaw.ravenclawspingequalizer;
+
+/**
+ * Where a base-ping sample came from. Sources whose round trip also covers server-side
+ * processing are biased upwards, so the estimator gives them a smaller weight than probes.
+ */
+public enum RttSource {
+    PROBE("probe", 1.0),
+    KEEP_ALIVE("keepalive", 0.5);
+
+    private final String label;
+    private final double weight;
+
+    RttSource(String label, double weight) {
+        this.label = label;
+        this.weight = weight;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public double weight() {
+        return weight;
+    }
+}
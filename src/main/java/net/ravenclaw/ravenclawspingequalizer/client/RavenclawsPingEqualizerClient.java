@@ -16,9 +16,11 @@ import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.network.PlayerListEntry;
 import net.minecraft.text.Text;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
 import net.ravenclaw.ravenclawspingequalizer.PingEqualizerState;
 import net.ravenclaw.ravenclawspingequalizer.cryptography.ApiService;
 import net.ravenclaw.ravenclawspingequalizer.cryptography.CryptoHandler;
+import net.ravenclaw.ravenclawspingequalizer.net.DelayLineMetrics;
 
 public class RavenclawsPingEqualizerClient implements ClientModInitializer {
 
@@ -30,6 +32,7 @@ public class RavenclawsPingEqualizerClient implements ClientModInitializer {
 
     @Override
     public void onInitializeClient() {
+        PingEqualizerConfig.load();
         ApiService.refreshApiBaseUrlFromGistAsync();
         cryptoHandler = new CryptoHandler();
 
@@ -144,6 +147,30 @@ public class RavenclawsPingEqualizerClient implements ClientModInitializer {
                                         return 1;
                                     })
                             )
+                            .then(ClientCommandManager.literal("stats")
+                                    .executes(ctx -> {
+                                        sendLocalMessage("Ping Equalizer stats\n"
+                                                + DelayLineMetrics.describeQueues() + "\n"
+                                                + DelayLineMetrics.describeDrains() + "\n"
+                                                + DelayLineMetrics.describeFlushes() + "\n"
+                                                + PingEqualizerState.getInstance().describeProbes());
+                                        return 1;
+                                    })
+                                    .then(ClientCommandManager.literal("lateness")
+                                            .executes(ctx -> {
+                                                sendLocalMessage("Ping Equalizer release lateness\n"
+                                                        + DelayLineMetrics.describeLateness());
+                                                return 1;
+                                            })
+                                            .then(ClientCommandManager.literal("reset")
+                                                    .executes(ctx -> {
+                                                        DelayLineMetrics.resetLateness();
+                                                        sendLocalMessage("Ping Equalizer lateness histograms cleared.");
+                                                        return 1;
+                                                    })
+                                            )
+                                    )
+                            )
                             .then(ClientCommandManager.literal("off")
                                     .executes(ctx -> {
                                         if (!ensureCommandAllowed()) {
@@ -0,0 +1,48 @@
+package net.ravenclaw.ravenclawspingequalizer.estimator;
+
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+import net.ravenclaw.ravenclawspingequalizer.RttSource;
+
+/**
+ * Turns a stream of base-ping samples (round trips with the equalizer's own delay taken out)
+ * into the estimate the TOTAL mode controller steers by. Owned by the client thread, like the
+ * rest of the controller state.
+ */
+public interface BaseRttEstimator {
+
+    /**
+     * Feeds one sample and returns the updated estimate in nanoseconds, or -1 when there is still
+     * no estimate to act on.
+     */
+    long update(long sampleNanos, long nowNanos, RttSource source);
+
+    /**
+     * Feeds a round trip the base ping cannot exceed but may sit well below, such as a sequence
+     * ack that also waited for the server tick. It can only pull the estimate down; it never counts
+     * as a sample. Returns the estimate afterwards, or 0 when there is none.
+     */
+    long bound(long upperBoundNanos, long nowNanos);
+
+    /**
+     * Provides a starting point before any sample has arrived, such as the server-reported
+     * latency; samples override it.
+     */
+    void seed(long estimateNanos, long nowNanos);
+
+    /**
+     * Current estimate in nanoseconds, or 0 when there is none.
+     */
+    long estimateNanos();
+
+    void reset();
+
+    PingEqualizerConfig.BaseEstimator kind();
+
+    static BaseRttEstimator create(PingEqualizerConfig config) {
+        return switch (config.getBaseEstimator()) {
+            case SMOOTHED -> new SmoothedMedianEstimator(config.getBaseFilterWindow(), config.getBaseFilterPercentile());
+            case MIN_RTT -> new WindowedMinEstimator(config.getMinRttWindowNanos());
+            case KALMAN -> new KalmanEstimator();
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package net.ravenclaw.ravenclawspingequalizer.estimator;
+
+import java.util.concurrent.TimeUnit;
+
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+import net.ravenclaw.ravenclawspingequalizer.RttSource;
+
+/**
+ * Scalar Kalman filter over a random-walk RTT. The measurement variance is learned from the
+ * innovations, so a jittery path trusts single samples less and a quiet one converges in a few
+ * samples. A run of samples outside the gate on the same side is taken as a route change and
+ * reopens the uncertainty, so the estimate jumps instead of crawling to the new level.
+ */
+final class KalmanEstimator implements BaseRttEstimator {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // how far the true RTT may wander per second, as a variance
+    private static final double PROCESS_VARIANCE_PER_SECOND = square(TimeUnit.MILLISECONDS.toNanos(2));
+    private static final double INITIAL_VARIANCE = square(TimeUnit.MILLISECONDS.toNanos(20));
+    private static final double SEED_VARIANCE = square(TimeUnit.MILLISECONDS.toNanos(100));
+    private static final double MIN_MEASUREMENT_VARIANCE = square(TimeUnit.MICROSECONDS.toNanos(500));
+    private static final double VARIANCE_ALPHA = 0.1;
+    private static final double GATE_SIGMAS = 3.0;
+    private static final int OUTLIERS_FOR_ROUTE_CHANGE = 3;
+
+    private boolean hasSample;
+    private double estimate;
+    private double variance;
+    private double measurementVariance = INITIAL_VARIANCE;
+    private long lastUpdateNanos;
+    private int outliers;
+    private int outlierSign;
+
+    @Override
+    public long update(long sampleNanos, long nowNanos, RttSource source) {
+        if (sampleNanos <= 0) {
+            return -1;
+        }
+        if (!hasSample) {
+            hasSample = true;
+            lastUpdateNanos = nowNanos;
+            if (estimate <= 0) {
+                estimate = sampleNanos;
+                variance = measurementVariance;
+                return Math.round(estimate);
+            }
+            // a seed only gives a starting level; wide uncertainty lets the first sample all but replace it
+            variance = SEED_VARIANCE;
+        }
+
+        double elapsedSeconds = Math.max(0, nowNanos - lastUpdateNanos) / NANOS_PER_SECOND;
+        lastUpdateNanos = nowNanos;
+        variance += PROCESS_VARIANCE_PER_SECOND * elapsedSeconds;
+
+        // less trustworthy sources count as noisier measurements
+        double sampleVariance = measurementVariance / source.weight();
+        double innovation = sampleNanos - estimate;
+        double innovationVariance = variance + sampleVariance;
+
+        if (innovation * innovation > GATE_SIGMAS * GATE_SIGMAS * innovationVariance) {
+            int sign = innovation > 0 ? 1 : -1;
+            outliers = sign == outlierSign ? outliers + 1 : 1;
+            outlierSign = sign;
+            if (outliers < OUTLIERS_FOR_ROUTE_CHANGE) {
+                return Math.round(estimate);
+            }
+            variance = innovation * innovation;
+            innovationVariance = variance + sampleVariance;
+        }
+        outliers = 0;
+        outlierSign = 0;
+
+        double gain = variance / innovationVariance;
+        estimate += gain * innovation;
+        variance *= 1.0 - gain;
+        measurementVariance = Math.max(MIN_MEASUREMENT_VARIANCE,
+                (1.0 - VARIANCE_ALPHA) * measurementVariance + VARIANCE_ALPHA * innovation * innovation);
+        return Math.round(estimate);
+    }
+
+    @Override
+    public long bound(long upperBoundNanos, long nowNanos) {
+        // a truncation, not an update: the innovation of a biased sample would be read as noise
+        if (estimate > upperBoundNanos) {
+            estimate = upperBoundNanos;
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public void seed(long estimateNanos, long nowNanos) {
+        if (!hasSample) {
+            estimate = Math.max(estimate, estimateNanos);
+        }
+    }
+
+    @Override
+    public long estimateNanos() {
+        return Math.round(estimate);
+    }
+
+    @Override
+    public void reset() {
+        hasSample = false;
+        estimate = 0;
+        variance = 0;
+        measurementVariance = INITIAL_VARIANCE;
+        outliers = 0;
+        outlierSign = 0;
+    }
+
+    @Override
+    public PingEqualizerConfig.BaseEstimator kind() {
+        return PingEqualizerConfig.BaseEstimator.KALMAN;
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
@@ -0,0 +1,71 @@
+package net.ravenclaw.ravenclawspingequalizer.estimator;
+
+import java.util.Arrays;
+
+/**
+ * Order statistic over the last {@code capacity} samples, kept as an arrival ring plus a sorted
+ * copy updated in place: each push removes the evicted value and inserts the new one with a
+ * binary search and a single shift, so nothing is allocated or fully re-sorted per sample.
+ */
+public final class SlidingOrderStatistic {
+
+    private final long[] arrivals;
+    private final long[] sorted;
+    private final double quantile;
+    private int head;
+    private int count;
+
+    /**
+     * @param quantile 0 for the minimum, 0.5 for the median, 1 for the maximum
+     */
+    public SlidingOrderStatistic(int capacity, double quantile) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.arrivals = new long[capacity];
+        this.sorted = new long[capacity];
+        this.quantile = Math.max(0.0, Math.min(1.0, quantile));
+    }
+
+    /**
+     * Adds a sample, evicting the oldest once full, and returns the current order statistic.
+     */
+    public long push(long value) {
+        if (count == arrivals.length) {
+            long evicted = arrivals[head];
+            int at = Arrays.binarySearch(sorted, 0, count, evicted);
+            System.arraycopy(sorted, at + 1, sorted, at, count - at - 1);
+            count--;
+        }
+        int at = Arrays.binarySearch(sorted, 0, count, value);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        System.arraycopy(sorted, at, sorted, at + 1, count - at);
+        sorted[at] = value;
+        count++;
+        arrivals[head] = value;
+        head = (head + 1) % arrivals.length;
+        return get();
+    }
+
+    /**
+     * Current order statistic, or -1 when empty. For the median of an even count this is the
+     * upper of the two middle values.
+     */
+    public long get() {
+        if (count == 0) {
+            return -1;
+        }
+        return sorted[Math.min(count - 1, (int) (quantile * count))];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+}
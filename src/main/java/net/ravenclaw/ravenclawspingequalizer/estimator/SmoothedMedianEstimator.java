@@ -0,0 +1,73 @@
+package net.ravenclaw.ravenclawspingequalizer.estimator;
+
+import java.util.concurrent.TimeUnit;
+
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+import net.ravenclaw.ravenclawspingequalizer.RttSource;
+
+/**
+ * The original pipeline: a short sliding percentile (the median by default) over probe samples,
+ * a step clamp and a slow EMA. Very steady, but each sample only moves the estimate a few percent,
+ * so it is slow after route changes.
+ */
+final class SmoothedMedianEstimator implements BaseRttEstimator {
+
+    private static final double ALPHA = 0.07;
+    private static final double MAX_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(25);
+
+    private final SlidingOrderStatistic window;
+    private double smoothedNanos = 0;
+
+    SmoothedMedianEstimator(int windowSize, double percentile) {
+        this.window = new SlidingOrderStatistic(windowSize, percentile);
+    }
+
+    @Override
+    public long update(long sampleNanos, long nowNanos, RttSource source) {
+        if (sampleNanos <= 0) {
+            return -1;
+        }
+        long filtered = window.push(sampleNanos);
+        if (filtered <= 0) {
+            return -1;
+        }
+        double alpha = ALPHA * source.weight();
+        double candidate = filtered;
+        if (smoothedNanos > 0) {
+            candidate = Math.max(smoothedNanos - MAX_STEP_NANOS, Math.min(smoothedNanos + MAX_STEP_NANOS, candidate));
+        }
+        smoothedNanos = smoothedNanos == 0
+                ? candidate
+                : smoothedNanos * (1.0 - alpha) + candidate * alpha;
+        return Math.round(smoothedNanos);
+    }
+
+    @Override
+    public long bound(long upperBoundNanos, long nowNanos) {
+        if (smoothedNanos > upperBoundNanos) {
+            smoothedNanos = upperBoundNanos;
+        }
+        return Math.round(smoothedNanos);
+    }
+
+    @Override
+    public void seed(long estimateNanos, long nowNanos) {
+        smoothedNanos = Math.max(smoothedNanos, estimateNanos);
+    }
+
+    @Override
+    public long estimateNanos() {
+        return Math.round(smoothedNanos);
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+        smoothedNanos = 0;
+    }
+
+    @Override
+    public PingEqualizerConfig.BaseEstimator kind() {
+        return PingEqualizerConfig.BaseEstimator.SMOOTHED;
+    }
+}
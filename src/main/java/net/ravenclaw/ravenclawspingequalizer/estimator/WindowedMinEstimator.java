@@ -0,0 +1,110 @@
+package net.ravenclaw.ravenclawspingequalizer.estimator;
+
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+import net.ravenclaw.ravenclawspingequalizer.RttSource;
+
+/**
+ * BBR-style windowed minimum: queueing and server-side processing only ever add to a round trip,
+ * so the smallest sample over the window is the best view of the path itself. Drops in RTT are
+ * taken on the next sample; rises once the lower samples age out of the window.
+ *
+ * <p>Keeps the best, second-best and third-best samples from successive sub-windows (Kathleen
+ * Nichols' algorithm, as in Linux's lib/minmax.c), so expiry needs no sample history.
+ */
+final class WindowedMinEstimator implements BaseRttEstimator {
+
+    private final long windowNanos;
+    private final long[] values = new long[3];
+    private final long[] times = new long[3];
+    private boolean hasSample;
+    private long seedNanos;
+
+    WindowedMinEstimator(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    @Override
+    public long update(long sampleNanos, long nowNanos, RttSource source) {
+        if (sampleNanos <= 0) {
+            return -1;
+        }
+        return push(sampleNanos, nowNanos);
+    }
+
+    @Override
+    public long bound(long upperBoundNanos, long nowNanos) {
+        // every sample is an upper bound to a min filter, so a biased one simply never wins the minimum
+        return upperBoundNanos > 0 ? push(upperBoundNanos, nowNanos) : estimateNanos();
+    }
+
+    private long push(long sampleNanos, long nowNanos) {
+        if (!hasSample || sampleNanos <= values[0] || nowNanos - times[2] > windowNanos) {
+            hasSample = true;
+            fill(sampleNanos, nowNanos);
+            return values[0];
+        }
+        if (sampleNanos <= values[1]) {
+            set(1, sampleNanos, nowNanos);
+            set(2, sampleNanos, nowNanos);
+        } else if (sampleNanos <= values[2]) {
+            set(2, sampleNanos, nowNanos);
+        }
+        return expire(sampleNanos, nowNanos);
+    }
+
+    private long expire(long sampleNanos, long nowNanos) {
+        long age = nowNanos - times[0];
+        if (age > windowNanos) {
+            shift(sampleNanos, nowNanos);
+            if (nowNanos - times[0] > windowNanos) {
+                shift(sampleNanos, nowNanos);
+            }
+        } else if (times[1] == times[0] && age > windowNanos / 4) {
+            // a quarter window in without a second choice: take one from this sub-window
+            set(1, sampleNanos, nowNanos);
+            set(2, sampleNanos, nowNanos);
+        } else if (times[2] == times[1] && age > windowNanos / 2) {
+            set(2, sampleNanos, nowNanos);
+        }
+        return values[0];
+    }
+
+    private void shift(long sampleNanos, long nowNanos) {
+        set(0, values[1], times[1]);
+        set(1, values[2], times[2]);
+        set(2, sampleNanos, nowNanos);
+    }
+
+    private void fill(long sampleNanos, long nowNanos) {
+        for (int i = 0; i < 3; i++) {
+            set(i, sampleNanos, nowNanos);
+        }
+    }
+
+    private void set(int slot, long value, long time) {
+        values[slot] = value;
+        times[slot] = time;
+    }
+
+    @Override
+    public void seed(long estimateNanos, long nowNanos) {
+        // only a stand-in: a seed is an upper bound and must not pin the minimum for a whole window
+        seedNanos = Math.max(seedNanos, estimateNanos);
+    }
+
+    @Override
+    public long estimateNanos() {
+        return hasSample ? values[0] : seedNanos;
+    }
+
+    @Override
+    public void reset() {
+        hasSample = false;
+        seedNanos = 0;
+    }
+
+    @Override
+    public PingEqualizerConfig.BaseEstimator kind() {
+        return PingEqualizerConfig.BaseEstimator.MIN_RTT;
+    }
+}
@@ -8,6 +8,9 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelPipeline;
@@ -17,9 +20,11 @@ import net.minecraft.network.NetworkSide;
 import net.minecraft.network.NetworkState;
 import net.minecraft.network.listener.PacketListener;
 import net.minecraft.text.Text;
+import net.ravenclaw.ravenclawspingequalizer.DelayPlan;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
 import net.ravenclaw.ravenclawspingequalizer.PingEqualizerState;
 import net.ravenclaw.ravenclawspingequalizer.bridge.PingEqualizerConnectionBridge;
-import net.ravenclaw.ravenclawspingequalizer.net.PingEqualizerChannelHandler;
+import net.ravenclaw.ravenclawspingequalizer.net.DelayLineHandlers;
 
 @Mixin(ClientConnection.class)
 public abstract class ClientConnectionMixin implements PingEqualizerConnectionBridge {
@@ -32,10 +37,10 @@ public abstract class ClientConnectionMixin implements PingEqualizerConnectionBr
     private NetworkSide side;
 
     @Unique
-    private PingEqualizerChannelHandler pingEqualizer$channelHandler;
+    private final DelayLineHandlers pingEqualizer$handlers = new DelayLineHandlers();
 
     @Unique
-    private int pingEqualizer$tickCounter = 0;
+    private Consumer<DelayPlan> pingEqualizer$activationListener;
 
     @Unique
     private boolean pingEqualizer$enteredPlay = false;
@@ -69,6 +74,11 @@ public abstract class ClientConnectionMixin implements PingEqualizerConnectionBr
         if (!pingEqualizer$isClientboundConnection()) {
             return;
         }
+        if (pingEqualizer$activationListener == null) {
+            // replaces polling the pipeline: install or remove only when the plan turns on or off
+            pingEqualizer$activationListener = plan -> pingEqualizer$scheduleSync();
+            PingEqualizerState.getInstance().addActivationListener(pingEqualizer$activationListener);
+        }
         try {
             pingEqualizer$ensureHandler(context.pipeline());
         } catch (Exception e) {
@@ -77,41 +87,64 @@ public abstract class ClientConnectionMixin implements PingEqualizerConnectionBr
         }
     }
 
-    @Inject(method = "disconnect(Lnet/minecraft/text/Text;)V", at = @At("HEAD"), require = 0)
-    private void pingEqualizer$onDisconnect(Text reason, CallbackInfo ci) {
-        if (!pingEqualizer$isClientboundConnection()) {
-            return;
+    @Inject(method = "channelInactive", at = @At("HEAD"), require = 0)
+    private void pingEqualizer$onChannelInactive(io.netty.channel.ChannelHandlerContext context, CallbackInfo ci) {
+        pingEqualizer$removeActivationListener();
+    }
+
+    @Unique
+    private void pingEqualizer$removeActivationListener() {
+        if (pingEqualizer$activationListener != null) {
+            PingEqualizerState.getInstance().removeActivationListener(pingEqualizer$activationListener);
+            pingEqualizer$activationListener = null;
         }
-        PingEqualizerState.getInstance().setOff();
-        pingEqualizer$enteredPlay = false;
-        if (pingEqualizer$channelHandler != null) {
-            pingEqualizer$channelHandler.setActive(false);
+    }
+
+    @Unique
+    private void pingEqualizer$scheduleSync() {
+        Channel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            ch.eventLoop().execute(this::pingEqualizer$syncInstallation);
         }
     }
 
-    @Inject(method = "tick", at = @At("TAIL"), require = 0)
-    private void pingEqualizer$onTick(CallbackInfo ci) {
-        if (!pingEqualizer$isClientboundConnection()) {
+    /**
+     * Brings the pipeline in line with the current plan on the event loop: installs the handlers
+     * while delaying, and takes them out once the plan is off and nothing is still held, so a
+     * disabled mod costs nothing per packet.
+     */
+    @Unique
+    private void pingEqualizer$syncInstallation() {
+        Channel ch = channel;
+        if (ch == null || !ch.isOpen()) {
             return;
         }
-        if (channel == null || !channel.isOpen()) {
-            return;
+        ChannelPipeline pipeline = ch.pipeline();
+        try {
+            if (!PingEqualizerState.getInstance().getPlan().isOff()) {
+                pingEqualizer$ensureHandler(pipeline);
+                PingEqualizerState.getInstance().onDelayLineInstalled();
+                return;
+            }
+            if (!pingEqualizer$handlers.uninstall(pipeline)) {
+                // still holding traffic; removing now would reorder it
+                ch.eventLoop().schedule(this::pingEqualizer$syncInstallation, 50, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            org.slf4j.LoggerFactory.getLogger("PingEqualizer")
+                .warn("Failed to update channel handlers: {}", e.getMessage());
         }
+    }
 
-        if (pingEqualizer$tickCounter++ % 20 != 0) {
+    @Inject(method = "disconnect(Lnet/minecraft/text/Text;)V", at = @At("HEAD"), require = 0)
+    private void pingEqualizer$onDisconnect(Text reason, CallbackInfo ci) {
+        if (!pingEqualizer$isClientboundConnection()) {
             return;
         }
-
-        ChannelPipeline pipeline = channel.pipeline();
-        if (pipeline.get(PingEqualizerChannelHandler.HANDLER_NAME) == null) {
-            try {
-                if (pingEqualizer$ensureHandler(pipeline)) {
-                org.slf4j.LoggerFactory.getLogger("PingEqualizer")
-                    .info("Reinstalled channel handler after it was removed");
-                }
-            } catch (Exception ignored) {
-            }
-        }
+        pingEqualizer$removeActivationListener();
+        PingEqualizerState.getInstance().setOff();
+        pingEqualizer$enteredPlay = false;
+        pingEqualizer$handlers.setActive(false);
     }
 
     @Inject(method = "transitionInbound", at = @At("HEAD"), require = 0)
@@ -136,10 +169,12 @@ public abstract class ClientConnectionMixin implements PingEqualizerConnectionBr
             boolean reset = !pingEqualizer$reconfiguring;
             pingEqualizer$enterPlay(reset);
             pingEqualizer$reconfiguring = false;
+        } else if (phase == NetworkPhase.CONFIGURATION
+                && (pingEqualizer$reconfiguring || pingEqualizer$lastPhase == NetworkPhase.PLAY)) {
+            // reconfiguring mid-session: keep delaying so latency stays continuous; the transition
+            // packets and codec switches already travel through the queues in order
+            pingEqualizer$reconfiguring = true;
         } else {
-            if (phase == NetworkPhase.CONFIGURATION && pingEqualizer$lastPhase == NetworkPhase.PLAY) {
-                pingEqualizer$reconfiguring = true;
-            }
             pingEqualizer$leavePlay(phase != NetworkPhase.CONFIGURATION);
         }
         pingEqualizer$lastPhase = phase;
@@ -161,16 +196,12 @@ public abstract class ClientConnectionMixin implements PingEqualizerConnectionBr
         } else if (resetState) {
             PingEqualizerState.getInstance().prepareForNewPlaySession();
         }
-        if (pingEqualizer$channelHandler != null) {
-            pingEqualizer$channelHandler.setActive(true);
-        }
+        pingEqualizer$handlers.setActive(true);
     }
 
     @Unique
     private void pingEqualizer$leavePlay(boolean suspendState) {
-        if (pingEqualizer$channelHandler != null) {
-            pingEqualizer$channelHandler.setActive(false);
-        }
+        pingEqualizer$handlers.setActive(false);
         if (pingEqualizer$enteredPlay && suspendState) {
             PingEqualizerState.getInstance().suspendForProtocolChange();
             pingEqualizer$enteredPlay = false;
@@ -182,21 +213,36 @@ public abstract class ClientConnectionMixin implements PingEqualizerConnectionBr
         if (pipeline == null) {
             return false;
         }
-        PingEqualizerChannelHandler existing = (PingEqualizerChannelHandler) pipeline.get(PingEqualizerChannelHandler.HANDLER_NAME);
-        if (existing != null) {
-            pingEqualizer$channelHandler = existing;
+        if (!pingEqualizer$handlers.isInstalled(pipeline) && PingEqualizerState.getInstance().getPlan().isOff()) {
+            // stays out of the pipeline until a mode is set; the activation listener installs it
             return false;
         }
-        if (pingEqualizer$channelHandler == null) {
-            pingEqualizer$channelHandler = new PingEqualizerChannelHandler();
+        PingEqualizerConfig config = PingEqualizerConfig.get();
+        return pingEqualizer$handlers.install(pipeline, pingEqualizer$resolvePacketHandlerName(pipeline),
+                config.isOutboundFrameDelay(), config.isInboundRawFrameDelay());
+    }
+
+    @Inject(method = "setCompressionThreshold", at = @At("RETURN"), require = 0)
+    private void pingEqualizer$onSetCompression(int compressionThreshold, boolean rejectsBadPackets, CallbackInfo ci) {
+        if (!pingEqualizer$isClientboundConnection() || channel == null) {
+            return;
         }
-        String anchor = pingEqualizer$resolvePacketHandlerName(pipeline);
-        if (anchor != null) {
-            pipeline.addBefore(anchor, PingEqualizerChannelHandler.HANDLER_NAME, pingEqualizer$channelHandler);
+        ChannelPipeline pipeline = channel.pipeline();
+        if (channel.eventLoop().inEventLoop()) {
+            pingEqualizer$reanchorFrameLines(pipeline);
         } else {
-            pipeline.addLast(PingEqualizerChannelHandler.HANDLER_NAME, pingEqualizer$channelHandler);
+            channel.eventLoop().execute(() -> pingEqualizer$reanchorFrameLines(pipeline));
+        }
+    }
+
+    @Unique
+    private void pingEqualizer$reanchorFrameLines(ChannelPipeline pipeline) {
+        try {
+            pingEqualizer$handlers.reanchorFrameLines(pipeline);
+        } catch (Exception e) {
+            org.slf4j.LoggerFactory.getLogger("PingEqualizer")
+                .warn("Failed to re-anchor frame handlers: {}", e.getMessage());
         }
-        return true;
     }
 
     @Unique
@@ -0,0 +1,182 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Growable FIFO ring of delayed messages backed by parallel arrays, so steady traffic does not
+ * allocate per packet. Consecutive messages whose deadlines fall within one wheel tick of each
+ * other share a run with a single deadline, so a burst is checked and released as one unit.
+ * Not thread-safe: every call must come from the owning channel's event loop.
+ */
+public final class DelayLine {
+
+    private static final int INITIAL_CAPACITY = 64;
+    static final long RUN_SPAN_NANOS = ReleaseTimingWheel.TICK_NANOS;
+
+    // message at 2 * index, promise (or null) at 2 * index + 1
+    private Object[] entries;
+    // each message's own deadline; the run releases at the latest of them
+    private long[] deadlines;
+    private int[] sizes;
+    private int mask;
+    private int head;
+    private int size;
+    private long bytes;
+
+    // runs never outnumber messages, so they share the message ring's capacity and mask
+    private long[] runFirstDeadlines;
+    private long[] runDeadlines;
+    private int[] runCounts;
+    private int runHead;
+    private int runSize;
+
+    public DelayLine() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        entries = new Object[capacity * 2];
+        deadlines = new long[capacity];
+        sizes = new int[capacity];
+        runFirstDeadlines = new long[capacity];
+        runDeadlines = new long[capacity];
+        runCounts = new int[capacity];
+        mask = capacity - 1;
+        head = 0;
+        runHead = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int runs() {
+        return runSize;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public void add(long deadlineNanos, Object msg, ChannelPromise promise, int estimatedBytes) {
+        if (size == sizes.length) {
+            grow();
+        }
+        int index = (head + size) & mask;
+        entries[index << 1] = msg;
+        entries[(index << 1) + 1] = promise;
+        deadlines[index] = deadlineNanos;
+        sizes[index] = estimatedBytes;
+        bytes += estimatedBytes;
+        size++;
+
+        if (runSize > 0) {
+            int tail = (runHead + runSize - 1) & mask;
+            // measured from the run's first deadline so joining can't creep the run forward
+            long offset = deadlineNanos - runFirstDeadlines[tail];
+            if (offset > -RUN_SPAN_NANOS && offset < RUN_SPAN_NANOS) {
+                runCounts[tail]++;
+                // release at the latest deadline in the run, so nothing goes out early
+                if (deadlineNanos - runDeadlines[tail] > 0) {
+                    runDeadlines[tail] = deadlineNanos;
+                }
+                return;
+            }
+        }
+        int run = (runHead + runSize) & mask;
+        runFirstDeadlines[run] = deadlineNanos;
+        runDeadlines[run] = deadlineNanos;
+        runCounts[run] = 1;
+        runSize++;
+    }
+
+    /**
+     * Deadline of the head run, which applies to every message still in it.
+     */
+    public long peekDeadline() {
+        return runDeadlines[runHead];
+    }
+
+    /**
+     * Messages left in the head run, all due together at {@link #peekDeadline()}.
+     */
+    public int peekRunLength() {
+        return runCounts[runHead];
+    }
+
+    public Object peekMessage() {
+        return entries[head << 1];
+    }
+
+    public ChannelPromise peekPromise() {
+        return (ChannelPromise) entries[(head << 1) + 1];
+    }
+
+    /**
+     * Deadline the head message was queued with, at or before its run's {@link #peekDeadline()}.
+     */
+    public long peekMessageDeadline() {
+        return deadlines[head];
+    }
+
+    public int peekSize() {
+        return sizes[head];
+    }
+
+    /**
+     * Number of entries from the head whose deadline has passed, counting at most {@code limit}.
+     */
+    public int countDue(long nowNanos, int limit) {
+        int count = 0;
+        for (int i = 0; i < runSize && count < limit; i++) {
+            int run = (runHead + i) & mask;
+            if (runDeadlines[run] - nowNanos > 0) {
+                break;
+            }
+            count += runCounts[run];
+        }
+        return Math.min(count, limit);
+    }
+
+    public void remove() {
+        bytes -= sizes[head];
+        entries[head << 1] = null;
+        entries[(head << 1) + 1] = null;
+        head = (head + 1) & mask;
+        size--;
+        if (--runCounts[runHead] == 0) {
+            runHead = (runHead + 1) & mask;
+            runSize--;
+        }
+    }
+
+    private void grow() {
+        Object[] oldEntries = entries;
+        long[] oldDeadlines = deadlines;
+        int[] oldSizes = sizes;
+        long[] oldRunFirstDeadlines = runFirstDeadlines;
+        long[] oldRunDeadlines = runDeadlines;
+        int[] oldRunCounts = runCounts;
+        int oldMask = mask;
+        int oldHead = head;
+        int oldRunHead = runHead;
+        allocate(oldSizes.length << 1);
+        for (int i = 0; i < size; i++) {
+            int from = (oldHead + i) & oldMask;
+            deadlines[i] = oldDeadlines[from];
+            sizes[i] = oldSizes[from];
+            entries[i << 1] = oldEntries[from << 1];
+            entries[(i << 1) + 1] = oldEntries[(from << 1) + 1];
+        }
+        for (int i = 0; i < runSize; i++) {
+            int from = (oldRunHead + i) & oldMask;
+            runFirstDeadlines[i] = oldRunFirstDeadlines[from];
+            runDeadlines[i] = oldRunDeadlines[from];
+            runCounts[i] = oldRunCounts[from];
+        }
+    }
+}
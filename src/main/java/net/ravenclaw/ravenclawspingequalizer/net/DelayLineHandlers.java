@@ -0,0 +1,158 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.util.List;
+
+import io.netty.channel.ChannelPipeline;
+
+/**
+ * One connection's set of delay-line handlers and their place in its pipeline. Netty refuses to
+ * add a non-sharable handler a second time, so once the set has been taken out, the next install
+ * starts from fresh instances and wires them together again. Call on the event loop unless
+ * noted otherwise.
+ */
+public final class DelayLineHandlers {
+
+    private volatile PingEqualizerChannelHandler channelHandler = new PingEqualizerChannelHandler();
+    private EncodedFrameDelayHandler frameHandler;
+    private RawFrameDelayHandler rawFrameHandler;
+    private volatile boolean active = true;
+
+    public PingEqualizerChannelHandler channelHandler() {
+        return channelHandler;
+    }
+
+    /**
+     * Turns delaying on or off for the current handlers, and for any that replace them later.
+     * Safe to call from any thread.
+     */
+    public void setActive(boolean active) {
+        this.active = active;
+        channelHandler.setActive(active);
+    }
+
+    public boolean isInstalled(ChannelPipeline pipeline) {
+        return pipeline.get(PingEqualizerChannelHandler.HANDLER_NAME) != null;
+    }
+
+    /**
+     * Adds the packet handler ahead of {@code anchor} (or last, when there is none), the ingress
+     * stamp and whichever frame lines are enabled, adopting any that are already in place. Returns
+     * true when the packet handler itself was added.
+     */
+    public boolean install(ChannelPipeline pipeline, String anchor, boolean outboundFrames, boolean inboundRawFrames) {
+        boolean added = false;
+        PingEqualizerChannelHandler existing = (PingEqualizerChannelHandler) pipeline.get(PingEqualizerChannelHandler.HANDLER_NAME);
+        if (existing != null) {
+            channelHandler = existing;
+        } else {
+            if (anchor != null) {
+                pipeline.addBefore(anchor, PingEqualizerChannelHandler.HANDLER_NAME, channelHandler);
+            } else {
+                pipeline.addLast(PingEqualizerChannelHandler.HANDLER_NAME, channelHandler);
+            }
+            added = true;
+        }
+        installIngressStamp(pipeline);
+        if (outboundFrames) {
+            installFrameHandler(pipeline);
+        }
+        if (inboundRawFrames) {
+            installRawFrameHandler(pipeline);
+        }
+        return added;
+    }
+
+    private void installFrameHandler(ChannelPipeline pipeline) {
+        EncodedFrameDelayHandler existing = (EncodedFrameDelayHandler) pipeline.get(EncodedFrameDelayHandler.HANDLER_NAME);
+        if (existing != null) {
+            frameHandler = existing;
+        } else {
+            // below the prepender, so held buffers are complete (compressed, length-prefixed) frames
+            if (pipeline.get("prepender") == null) {
+                return;
+            }
+            if (frameHandler == null) {
+                frameHandler = new EncodedFrameDelayHandler();
+            }
+            pipeline.addBefore("prepender", EncodedFrameDelayHandler.HANDLER_NAME, frameHandler);
+        }
+        channelHandler.setFrameLine(frameHandler);
+    }
+
+    private static void installIngressStamp(ChannelPipeline pipeline) {
+        if (pipeline.get(WireIngressStampHandler.HANDLER_NAME) == null && pipeline.get(RawFrameDelayHandler.SPLITTER_NAME) != null) {
+            pipeline.addAfter(RawFrameDelayHandler.SPLITTER_NAME, WireIngressStampHandler.HANDLER_NAME, new WireIngressStampHandler());
+        }
+    }
+
+    private void installRawFrameHandler(ChannelPipeline pipeline) {
+        RawFrameDelayHandler existing = (RawFrameDelayHandler) pipeline.get(RawFrameDelayHandler.HANDLER_NAME);
+        if (existing != null) {
+            rawFrameHandler = existing;
+        } else {
+            if (pipeline.get(RawFrameDelayHandler.SPLITTER_NAME) == null) {
+                return;
+            }
+            if (rawFrameHandler == null) {
+                rawFrameHandler = new RawFrameDelayHandler();
+            }
+            // behind the ingress stamp, so a held frame's stamp is still its socket read
+            String after = pipeline.get(WireIngressStampHandler.HANDLER_NAME) != null
+                    ? WireIngressStampHandler.HANDLER_NAME : RawFrameDelayHandler.SPLITTER_NAME;
+            pipeline.addAfter(after, RawFrameDelayHandler.HANDLER_NAME, rawFrameHandler);
+        }
+        channelHandler.setRawFrameLine(rawFrameHandler);
+    }
+
+    /**
+     * Takes the whole set out of the pipeline, unless a handler still holds traffic that would be
+     * reordered by it. Returns false in that case, so the caller can try again later.
+     */
+    public boolean uninstall(ChannelPipeline pipeline) {
+        if (!isInstalled(pipeline)) {
+            return true;
+        }
+        if (!channelHandler.isIdle()) {
+            return false;
+        }
+        pipeline.remove(PingEqualizerChannelHandler.HANDLER_NAME);
+        if (pipeline.get(EncodedFrameDelayHandler.HANDLER_NAME) != null) {
+            pipeline.remove(EncodedFrameDelayHandler.HANDLER_NAME);
+        }
+        if (pipeline.get(RawFrameDelayHandler.HANDLER_NAME) != null) {
+            pipeline.remove(RawFrameDelayHandler.HANDLER_NAME);
+        }
+        if (pipeline.get(WireIngressStampHandler.HANDLER_NAME) != null) {
+            pipeline.remove(WireIngressStampHandler.HANDLER_NAME);
+        }
+        PingEqualizerChannelHandler fresh = new PingEqualizerChannelHandler();
+        fresh.setActive(active);
+        channelHandler = fresh;
+        frameHandler = null;
+        rawFrameHandler = null;
+        return true;
+    }
+
+    /**
+     * Puts the ingress stamp and the raw line back in front of the inflater once compression is
+     * switched on, since the inflater is inserted right after the splitter. Held frames arrived
+     * after the switch, so they move along and still pass through the inflater.
+     */
+    public void reanchorFrameLines(ChannelPipeline pipeline) {
+        if (isAfterInflater(pipeline, WireIngressStampHandler.HANDLER_NAME)) {
+            // stateless, so a fresh one simply takes its place
+            pipeline.remove(WireIngressStampHandler.HANDLER_NAME);
+            pipeline.addBefore(RawFrameDelayHandler.DECOMPRESS_NAME, WireIngressStampHandler.HANDLER_NAME, new WireIngressStampHandler());
+        }
+        if (rawFrameHandler != null && isAfterInflater(pipeline, RawFrameDelayHandler.HANDLER_NAME)) {
+            rawFrameHandler = rawFrameHandler.moveBefore(pipeline, RawFrameDelayHandler.DECOMPRESS_NAME);
+            channelHandler.setRawFrameLine(rawFrameHandler);
+        }
+    }
+
+    private static boolean isAfterInflater(ChannelPipeline pipeline, String name) {
+        List<String> names = pipeline.names();
+        int decompress = names.indexOf(RawFrameDelayHandler.DECOMPRESS_NAME);
+        return decompress >= 0 && decompress < names.indexOf(name);
+    }
+}
@@ -0,0 +1,165 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class DelayLineMetrics {
+
+    private static final LongAdder FLUSHES = new LongAdder();
+    private static final LongAdder FLUSHED_WRITES = new LongAdder();
+    private static final LongAdder OUTBOUND_QUEUED = new LongAdder();
+    private static final LongAdder OUTBOUND_QUEUED_BYTES = new LongAdder();
+    private static final LongAdder OUTBOUND_SATURATIONS = new LongAdder();
+    private static final LongAdder INBOUND_QUEUED = new LongAdder();
+    private static final LongAdder INBOUND_QUEUED_BYTES = new LongAdder();
+    private static final LongAdder INBOUND_SATURATIONS = new LongAdder();
+    private static final LongAdder OUTBOUND_PACED = new LongAdder();
+    private static final LongAdder INBOUND_PACED = new LongAdder();
+    private static final long ONE_MS_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final DrainStats OUTBOUND_DRAINS = new DrainStats();
+    private static final DrainStats INBOUND_DRAINS = new DrainStats();
+    private static final NanosHistogram OUTBOUND_LATENESS = new NanosHistogram(ONE_MS_NANOS);
+    private static final NanosHistogram INBOUND_LATENESS = new NanosHistogram(ONE_MS_NANOS);
+    // how far past its deadline the precision thread hands a release back, before the event loop picks it up
+    private static final NanosHistogram PRECISION_HANDOFF = new NanosHistogram(ONE_MS_NANOS);
+    private static volatile long precisionSpinMarginNanos = -1;
+
+    private static long lastSampleNanos = System.nanoTime();
+    private static long lastSampleFlushes = 0;
+    private static long lastSampleWrites = 0;
+
+    private DelayLineMetrics() {}
+
+    private static final class DrainStats {
+        final LongAdder passes = new LongAdder();
+        final LongAdder releases = new LongAdder();
+        final LongAdder yields = new LongAdder();
+        // passes over 1ms held the event loop long enough to delay the other direction
+        final NanosHistogram duration = new NanosHistogram(ONE_MS_NANOS);
+
+        String describe() {
+            long count = passes.sum();
+            if (count == 0) {
+                return "none yet";
+            }
+            return String.format("%d passes | Msgs/pass: %.2f | Yielded: %d | Duration p50 %.0fus p99 %.0fus max %.0fus | >1ms %d",
+                    count, (double) releases.sum() / count, yields.sum(),
+                    duration.valueAtQuantile(0.50) / 1000.0,
+                    duration.valueAtQuantile(0.99) / 1000.0,
+                    duration.maxNanos() / 1000.0,
+                    duration.countOver());
+        }
+    }
+
+    public static void recordFlush(int writes) {
+        FLUSHES.increment();
+        FLUSHED_WRITES.add(writes);
+    }
+
+    public static void recordQueued(boolean outbound, int messages, long bytes) {
+        if (outbound) {
+            OUTBOUND_QUEUED.add(messages);
+            OUTBOUND_QUEUED_BYTES.add(bytes);
+        } else {
+            INBOUND_QUEUED.add(messages);
+            INBOUND_QUEUED_BYTES.add(bytes);
+        }
+    }
+
+    public static void recordSaturation(boolean outbound) {
+        (outbound ? OUTBOUND_SATURATIONS : INBOUND_SATURATIONS).increment();
+    }
+
+    public static void recordPacedBacklog(boolean outbound, int backlog) {
+        (outbound ? OUTBOUND_PACED : INBOUND_PACED).add(backlog);
+    }
+
+    public static void recordDrainPass(boolean outbound, long durationNanos, int released, boolean yielded) {
+        DrainStats stats = outbound ? OUTBOUND_DRAINS : INBOUND_DRAINS;
+        stats.passes.increment();
+        stats.releases.add(released);
+        if (yielded) {
+            stats.yields.increment();
+        }
+        stats.duration.record(durationNanos);
+    }
+
+    public static String describeDrains() {
+        return "Outbound drains: " + OUTBOUND_DRAINS.describe() + "\n"
+                + "Inbound drains: " + INBOUND_DRAINS.describe();
+    }
+
+    public static void recordLateness(boolean outbound, long latenessNanos) {
+        (outbound ? OUTBOUND_LATENESS : INBOUND_LATENESS).record(latenessNanos);
+    }
+
+    /**
+     * Delayed releases recorded for one direction since the last reset.
+     */
+    public static long releaseCount(boolean outbound) {
+        return (outbound ? OUTBOUND_LATENESS : INBOUND_LATENESS).count();
+    }
+
+    /**
+     * Delayed releases that went out more than 1ms past their deadline since the last reset.
+     */
+    public static long lateReleaseCount(boolean outbound) {
+        return (outbound ? OUTBOUND_LATENESS : INBOUND_LATENESS).countOver();
+    }
+
+    public static void recordPrecisionHandoff(long overshootNanos, long spinMarginNanos) {
+        PRECISION_HANDOFF.record(overshootNanos);
+        precisionSpinMarginNanos = spinMarginNanos;
+    }
+
+    public static String describeLateness() {
+        String lateness = "Outbound lateness: " + describe(OUTBOUND_LATENESS) + "\n"
+                + "Inbound lateness: " + describe(INBOUND_LATENESS);
+        long margin = precisionSpinMarginNanos;
+        if (margin < 0) {
+            return lateness;
+        }
+        return lateness + "\n" + String.format("Precision hand-off overshoot: %s | spin margin %.0fus",
+                describe(PRECISION_HANDOFF), margin / 1000.0);
+    }
+
+    public static void resetLateness() {
+        OUTBOUND_LATENESS.reset();
+        INBOUND_LATENESS.reset();
+        PRECISION_HANDOFF.reset();
+    }
+
+    private static String describe(NanosHistogram histogram) {
+        if (histogram.count() == 0) {
+            return "no delayed releases yet";
+        }
+        return String.format("p50 %.0fus | p99 %.0fus | p99.9 %.0fus | max %.0fus | >1ms late %d/%d",
+                histogram.valueAtQuantile(0.50) / 1000.0,
+                histogram.valueAtQuantile(0.99) / 1000.0,
+                histogram.valueAtQuantile(0.999) / 1000.0,
+                histogram.maxNanos() / 1000.0,
+                histogram.countOver(), histogram.count());
+    }
+
+    public static String describeQueues() {
+        return String.format("Outbound queue: %d msgs, %.1f KiB, %d saturations, %d paced | Inbound queue: %d msgs, %.1f KiB, %d saturations, %d paced",
+                OUTBOUND_QUEUED.sum(), OUTBOUND_QUEUED_BYTES.sum() / 1024.0, OUTBOUND_SATURATIONS.sum(), OUTBOUND_PACED.sum(),
+                INBOUND_QUEUED.sum(), INBOUND_QUEUED_BYTES.sum() / 1024.0, INBOUND_SATURATIONS.sum(), INBOUND_PACED.sum());
+    }
+
+    public static synchronized String describeFlushes() {
+        long now = System.nanoTime();
+        long flushes = FLUSHES.sum();
+        long writes = FLUSHED_WRITES.sum();
+        double seconds = Math.max(1e-3, (now - lastSampleNanos) / 1_000_000_000.0);
+        long windowFlushes = flushes - lastSampleFlushes;
+        long windowWrites = writes - lastSampleWrites;
+        lastSampleNanos = now;
+        lastSampleFlushes = flushes;
+        lastSampleWrites = writes;
+        return String.format("Flushes: %.1f/s | Writes/flush: %.2f | Total: %d flushes, %d writes",
+                windowFlushes / seconds,
+                windowFlushes == 0 ? 0.0 : (double) windowWrites / windowFlushes,
+                flushes, writes);
+    }
+}
@@ -1,21 +1,46 @@
 package net.ravenclaw.ravenclawspingequalizer.net;
 
-import org.jetbrains.annotations.Nullable;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.internal.ObjectPool;
 
-import net.minecraft.network.packet.Packet;
+/**
+ * Pooled carrier that hands a message queued from outside the event loop over to a
+ * releaser's confined {@link DelayLine}.
+ */
+public final class DelayedPacketTask implements Runnable {
 
-public final class DelayedPacketTask {
-    public final Packet<?> packet;
-    public final long sendTimeNanos;
-    public final @Nullable Runnable sendAction;
+    private static final ObjectPool<DelayedPacketTask> POOL = ObjectPool.newPool(DelayedPacketTask::new);
 
-    public DelayedPacketTask(Packet<?> packet, long sendTimeNanos) {
-        this(packet, null, sendTimeNanos);
+    private final ObjectPool.Handle<DelayedPacketTask> handle;
+    private DelayedReleaser releaser;
+    private Object msg;
+    private ChannelPromise promise;
+    private long releaseTimeNanos;
+
+    private DelayedPacketTask(ObjectPool.Handle<DelayedPacketTask> handle) {
+        this.handle = handle;
+    }
+
+    public static DelayedPacketTask newInstance(DelayedReleaser releaser, Object msg, ChannelPromise promise,
+                                                long releaseTimeNanos) {
+        DelayedPacketTask task = POOL.get();
+        task.releaser = releaser;
+        task.msg = msg;
+        task.promise = promise;
+        task.releaseTimeNanos = releaseTimeNanos;
+        return task;
     }
 
-    public DelayedPacketTask(Packet<?> packet, @Nullable Runnable sendAction, long sendTimeNanos) {
-        this.packet = packet;
-        this.sendAction = sendAction;
-        this.sendTimeNanos = sendTimeNanos;
+    @Override
+    public void run() {
+        DelayedReleaser target = releaser;
+        Object m = msg;
+        ChannelPromise p = promise;
+        long release = releaseTimeNanos;
+        releaser = null;
+        msg = null;
+        promise = null;
+        handle.recycle(this);
+        target.enqueue(m, p, release);
     }
 }
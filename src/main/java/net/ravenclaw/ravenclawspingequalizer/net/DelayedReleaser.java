@@ -0,0 +1,334 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import net.minecraft.network.packet.Packet;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+
+/**
+ * One direction of a delay line: a confined {@link DelayLine} plus the wheel and precision
+ * wakeups that release its head on time. Subclasses decide what releasing a message means.
+ */
+public abstract class DelayedReleaser {
+
+    static final long PRECISION_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    static final long MIN_RESCHEDULE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    protected final DelayLine queue = new DelayLine();
+    protected final boolean outbound;
+    protected volatile ChannelHandlerContext ctx;
+    private boolean saturated;
+
+    private ReleaseTimingWheel timingWheel;
+    private ReleaseTimingWheel.Timeout wakeup;
+    private Runnable resumeTask;
+    private PrecisionReleaseThread.Target precisionTarget;
+    private boolean draining;
+    private boolean flushRequested;
+    private boolean delayDropped;
+    private long lastPlanDelayNanos;
+    private final ReleasePacer pacer = new ReleasePacer();
+
+    protected DelayedReleaser(boolean outbound) {
+        this.outbound = outbound;
+    }
+
+    public void attach(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        this.timingWheel = ReleaseTimingWheel.forExecutor(ctx.executor());
+        this.wakeup = new ReleaseTimingWheel.Timeout(this::drain);
+        this.resumeTask = this::drain;
+        this.precisionTarget = new PrecisionReleaseThread.Target(ctx.executor(), this::drain);
+    }
+
+    public void detach() {
+        if (timingWheel != null) {
+            timingWheel.cancel(wakeup);
+        }
+        if (precisionTarget != null && PingEqualizerConfig.get().isPrecisionRelease()) {
+            PrecisionReleaseThread.getInstance().disarm(precisionTarget);
+        }
+        this.ctx = null;
+    }
+
+    public boolean isAttached() {
+        return ctx != null;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Records the plan's unscaled delay for this direction, ahead of enqueueing a message under
+     * it. When the plan drops while messages are still held, everything queued since comes due
+     * behind the old backlog, so that backlog is paced out instead of released in one burst.
+     * Per-message delays are not compared, since bypass and reduced-fraction packets differ from
+     * their neighbours without any change of plan. Must run on the event loop.
+     */
+    public void notePlanDelay(long planDelayNanos) {
+        if (!queue.isEmpty() && lastPlanDelayNanos - planDelayNanos > MIN_RESCHEDULE_NANOS) {
+            delayDropped = true;
+        }
+        lastPlanDelayNanos = planDelayNanos;
+    }
+
+    public void enqueue(Object msg, ChannelPromise promise, long releaseTimeNanos) {
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(DelayedPacketTask.newInstance(this, msg, promise, releaseTimeNanos));
+            return;
+        }
+        int size = estimateSize(msg);
+        queue.add(releaseTimeNanos, msg, promise, size);
+        DelayLineMetrics.recordQueued(outbound, 1, size);
+        updateWatermark();
+        drain();
+    }
+
+    public void drain() {
+        if (draining || ctx == null) {
+            return;
+        }
+        draining = true;
+        PingEqualizerConfig config = PingEqualizerConfig.get();
+        long passStart = System.nanoTime();
+        long now = passStart;
+        int released = 0;
+        int runLeft = 0;
+        boolean yielded = false;
+        try {
+            while (true) {
+                if (queue.isEmpty()) {
+                    flushRequested = false;
+                    delayDropped = false;
+                    pacer.reset();
+                    onIdle();
+                    return;
+                }
+
+                long releaseTimeNanos = queue.peekDeadline();
+                if (runLeft == 0) {
+                    // one clock read per run; the rest of the run shares its deadline
+                    now = System.nanoTime();
+                }
+                long delayNanos = releaseTimeNanos - now;
+                if (runLeft > 0 || delayNanos <= 0 || flushRequested) {
+                    if (runLeft == 0) {
+                        runLeft = queue.peekRunLength();
+                    }
+                    if (!pacer.isActive() && (flushRequested || delayDropped)) {
+                        // ordinary bursts go out as they arrived; only a collapsed backlog is spread
+                        delayDropped = false;
+                        startPacing(config, now);
+                    }
+                    if (pacer.isActive()) {
+                        long slotNanos = pacer.nextReleaseNanos();
+                        if (slotNanos - now > 0) {
+                            // pacing tolerates wheel granularity, so never spin for it
+                            beforeWait(slotNanos);
+                            timingWheel.schedule(wakeup, slotNanos);
+                            return;
+                        }
+                        pacer.onReleased(now);
+                    }
+                    Object msg = queue.peekMessage();
+                    ChannelPromise promise = queue.peekPromise();
+                    long latenessNanos = now - queue.peekMessageDeadline();
+                    removeHead();
+                    if (latenessNanos >= 0) {
+                        // against the message's own deadline, so time spent waiting for its run counts
+                        DelayLineMetrics.recordLateness(outbound, latenessNanos);
+                    }
+                    release(msg, promise, now);
+                    runLeft--;
+                    if (++released >= config.getDrainBudgetPackets()
+                            || (runLeft == 0 && System.nanoTime() - passStart >= config.getDrainBudgetNanos())) {
+                        if (!queue.isEmpty()) {
+                            // hand the loop back to other channels and tasks, then carry on
+                            yielded = true;
+                            beforeWait(System.nanoTime());
+                            ctx.executor().execute(resumeTask);
+                            return;
+                        }
+                    }
+                    continue;
+                }
+
+                beforeWait(releaseTimeNanos);
+
+                if (delayNanos <= PRECISION_WINDOW_NANOS) {
+                    if (config.isPrecisionRelease()) {
+                        PrecisionReleaseThread.getInstance().arm(precisionTarget, releaseTimeNanos);
+                        return;
+                    }
+                    spinWait(delayNanos);
+                    continue;
+                }
+
+                long waitNanos = Math.max(delayNanos - PRECISION_WINDOW_NANOS, MIN_RESCHEDULE_NANOS);
+                timingWheel.schedule(wakeup, System.nanoTime() + waitNanos);
+                return;
+            }
+        } finally {
+            draining = false;
+            if (released > 0) {
+                DelayLineMetrics.recordDrainPass(outbound, System.nanoTime() - passStart, released, yielded);
+            }
+        }
+    }
+
+    private void startPacing(PingEqualizerConfig config, long now) {
+        long rampNanos = config.getReleaseRampNanos();
+        if (rampNanos <= 0) {
+            return;
+        }
+        int burst = config.getReleaseBurstPackets();
+        int backlog = flushRequested ? queue.size() : queue.countDue(now, Integer.MAX_VALUE);
+        if (backlog > burst) {
+            pacer.start(backlog, now, rampNanos);
+            DelayLineMetrics.recordPacedBacklog(outbound, backlog);
+        }
+    }
+
+    /**
+     * Makes everything still queued due now, draining it through the pacer rather than in one
+     * pass. Must run on the event loop.
+     */
+    public void releaseAllPaced() {
+        if (ctx == null || queue.isEmpty()) {
+            return;
+        }
+        if (!ctx.channel().isOpen() || PingEqualizerConfig.get().getReleaseRampNanos() <= 0) {
+            releaseAll();
+            return;
+        }
+        flushRequested = true;
+        timingWheel.cancel(wakeup);
+        drain();
+    }
+
+    /**
+     * Releases everything still queued right away, in order, or discards it if the channel is
+     * already closed. Must run on the event loop.
+     */
+    public void releaseAll() {
+        if (ctx == null) {
+            return;
+        }
+        if (!ctx.channel().isOpen()) {
+            discardAll(new ClosedChannelException());
+            return;
+        }
+        cancelWakeup();
+        long now = System.nanoTime();
+        while (!queue.isEmpty()) {
+            Object msg = queue.peekMessage();
+            ChannelPromise promise = queue.peekPromise();
+            removeHead();
+            release(msg, promise, now);
+        }
+        flushRequested = false;
+        delayDropped = false;
+        pacer.reset();
+        onIdle();
+    }
+
+    /**
+     * Hands every queued message, in order and with its own deadline, to a releaser that is not
+     * attached yet; it resumes them once attached and drained. Must run on the event loop.
+     */
+    void transferTo(DelayedReleaser target) {
+        cancelWakeup();
+        while (!queue.isEmpty()) {
+            target.queue.add(queue.peekMessageDeadline(), queue.peekMessage(), queue.peekPromise(), queue.peekSize());
+            queue.remove();
+        }
+        target.saturated = saturated;
+        target.lastPlanDelayNanos = lastPlanDelayNanos;
+        saturated = false;
+    }
+
+    /**
+     * Drops everything still queued, releasing reference-counted messages and failing their
+     * promises. Must run on the event loop.
+     */
+    public void discardAll(Throwable cause) {
+        cancelWakeup();
+        while (!queue.isEmpty()) {
+            Object msg = queue.peekMessage();
+            ChannelPromise promise = queue.peekPromise();
+            removeHead();
+            discard(msg, promise, cause);
+        }
+    }
+
+    protected static void discard(Object msg, ChannelPromise promise, Throwable cause) {
+        ReferenceCountUtil.safeRelease(msg);
+        if (promise != null) {
+            promise.tryFailure(cause);
+        }
+    }
+
+    private void cancelWakeup() {
+        // an armed wakeup for an empty line would keep the shared ticker running for nothing
+        if (timingWheel != null) {
+            timingWheel.cancel(wakeup);
+        }
+    }
+
+    private void removeHead() {
+        DelayLineMetrics.recordQueued(outbound, -1, -queue.peekSize());
+        queue.remove();
+        updateWatermark();
+    }
+
+    private void updateWatermark() {
+        PingEqualizerConfig config = PingEqualizerConfig.get();
+        long bytes = queue.bytes();
+        if (!saturated && bytes >= config.getHighWatermarkBytes(outbound)) {
+            saturated = true;
+            DelayLineMetrics.recordSaturation(outbound);
+            onSaturationChanged(true);
+        } else if (saturated && bytes <= config.getLowWatermarkBytes(outbound)) {
+            saturated = false;
+            onSaturationChanged(false);
+        }
+    }
+
+    protected int estimateSize(Object msg) {
+        if (msg instanceof ByteBuf buf) {
+            return buf.readableBytes();
+        }
+        if (msg instanceof ByteBufHolder holder) {
+            return holder.content().readableBytes();
+        }
+        if (msg instanceof Packet<?> packet) {
+            return PacketDelayPolicy.estimateBytes(packet);
+        }
+        return 0;
+    }
+
+    protected abstract void release(Object msg, ChannelPromise promise, long nowNanos);
+
+    protected void beforeWait(long nextReleaseNanos) {
+    }
+
+    protected void onIdle() {
+    }
+
+    protected void onSaturationChanged(boolean saturated) {
+    }
+
+    private static void spinWait(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Outbound delay line installed below the packet encoder, compressor and length prepender, so it
+ * holds finished wire frames instead of live packets. The packet-level handler still classifies
+ * each packet and stamps the delay for the frame it is about to produce; releasing a frame is then
+ * a plain write of an already-encoded buffer.
+ */
+public class EncodedFrameDelayHandler extends ChannelOutboundHandlerAdapter {
+
+    public static final String HANDLER_NAME = "ping_equalizer_frames";
+
+    private final OutboundReleaser outbound = new OutboundReleaser(null);
+    private long stampedDelayNanos;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        outbound.attach(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        outbound.releaseAll();
+        outbound.detach();
+    }
+
+    public boolean isAttached() {
+        return outbound.isAttached();
+    }
+
+    public boolean isIdle() {
+        return outbound.isEmpty();
+    }
+
+    /**
+     * Sets the delay for frames produced by the packet currently being written. Called on the
+     * event loop right before the packet is passed to the encoder, and cleared right after.
+     */
+    public void stampNextWrite(long delayNanos) {
+        this.stampedDelayNanos = delayNanos;
+    }
+
+    /**
+     * Passes the plan's unscaled outbound delay to the line, so a lowered plan paces out the
+     * frames still held at the old delay. Called on the event loop.
+     */
+    public void notePlanDelay(long planDelayNanos) {
+        outbound.notePlanDelay(planDelayNanos);
+    }
+
+    public void clearStamp() {
+        this.stampedDelayNanos = 0;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        long delayNanos = stampedDelayNanos;
+        if (delayNanos <= 0 && outbound.isEmpty()) {
+            ctx.write(msg, promise);
+            return;
+        }
+        outbound.enqueue(msg, promise, System.nanoTime() + Math.max(0, delayNanos));
+    }
+
+    public void flushAllQueues() {
+        ChannelHandlerContext ctx = outbound.ctx;
+        if (ctx == null) {
+            return;
+        }
+        if (ctx.executor().inEventLoop()) {
+            outbound.releaseAllPaced();
+        } else {
+            ctx.executor().execute(outbound::releaseAllPaced);
+        }
+    }
+}
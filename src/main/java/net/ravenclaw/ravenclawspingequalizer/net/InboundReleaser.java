@@ -0,0 +1,141 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.function.Consumer;
+
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.packet.Packet;
+
+public final class InboundReleaser extends DelayedReleaser {
+
+    // shared by every inbound line on the channel, so one draining line cannot resume reads another still needs paused
+    private static final AttributeKey<ReadPause> READ_PAUSE = AttributeKey.valueOf("ping_equalizer_read_pause");
+
+    private final Consumer<Object> releaseHook;
+    private boolean holdingRead;
+    private boolean readsSinceComplete;
+
+    public InboundReleaser(Consumer<Object> releaseHook) {
+        super(false);
+        this.releaseHook = releaseHook;
+    }
+
+    /**
+     * Passes the end of a socket read batch downstream, unless part of the batch is still queued:
+     * the drain pass that releases it closes its own batch, so the completion needs no queue
+     * slot of its own. Must run on the event loop.
+     */
+    public void readComplete() {
+        if (queue.isEmpty()) {
+            ctx.fireChannelReadComplete();
+        }
+    }
+
+    /**
+     * Also hands over any read pause this line holds, so the new line is the one to lift it.
+     */
+    void transferTo(InboundReleaser target) {
+        super.transferTo(target);
+        target.holdingRead = holdingRead;
+        holdingRead = false;
+    }
+
+    @Override
+    protected void release(Object msg, ChannelPromise promise, long nowNanos) {
+        if (!ctx.channel().isOpen()) {
+            discard(msg, promise, new ClosedChannelException());
+            return;
+        }
+        if (msg instanceof Packet<?> packet && packet.transitionsNetworkState()) {
+            // the decoder already turned autoRead off for the state switch and the transition turns it back on
+            forgetReadPause();
+        }
+        if (releaseHook != null) {
+            releaseHook.accept(msg);
+        }
+        ctx.fireChannelRead(msg);
+        readsSinceComplete = true;
+    }
+
+    @Override
+    protected void beforeWait(long nextReleaseNanos) {
+        completeReadBatch();
+    }
+
+    @Override
+    protected void onIdle() {
+        completeReadBatch();
+    }
+
+    /**
+     * Everything released in one pass forms one read batch downstream, closed by a single
+     * channelReadComplete.
+     */
+    private void completeReadBatch() {
+        if (readsSinceComplete) {
+            readsSinceComplete = false;
+            ctx.fireChannelReadComplete();
+        }
+    }
+
+    /**
+     * Stops pulling from the socket while the line is over its high watermark, so the backlog stays
+     * in the kernel buffer and TCP window. The flow control handler upstream of the packet handler
+     * already holds back decoded packets once autoRead is off, so only the current read batch
+     * still reaches us.
+     */
+    @Override
+    protected void onSaturationChanged(boolean saturated) {
+        ReadPause pause = readPause();
+        ChannelConfig config = ctx.channel().config();
+        if (saturated) {
+            if (holdingRead) {
+                return;
+            }
+            holdingRead = true;
+            if (pause.holders++ == 0 && config.isAutoRead()) {
+                pause.disabledAutoRead = true;
+                config.setAutoRead(false);
+            }
+        } else {
+            releaseReadPause(pause, true);
+        }
+    }
+
+    private void forgetReadPause() {
+        if (holdingRead) {
+            releaseReadPause(readPause(), false);
+        }
+    }
+
+    private void releaseReadPause(ReadPause pause, boolean resume) {
+        if (!holdingRead) {
+            return;
+        }
+        holdingRead = false;
+        if (--pause.holders == 0 && pause.disabledAutoRead) {
+            pause.disabledAutoRead = false;
+            if (resume) {
+                ctx.channel().config().setAutoRead(true);
+            }
+        }
+    }
+
+    private ReadPause readPause() {
+        Attribute<ReadPause> attribute = ctx.channel().attr(READ_PAUSE);
+        ReadPause pause = attribute.get();
+        if (pause == null) {
+            pause = new ReadPause();
+            attribute.set(pause);
+        }
+        return pause;
+    }
+
+    private static final class ReadPause {
+        int holders;
+        boolean disabledAutoRead;
+    }
+}
@@ -0,0 +1,75 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.function.Consumer;
+
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+
+public final class OutboundReleaser extends DelayedReleaser {
+
+    private static final int WRITABILITY_INDEX = 1;
+
+    private final Consumer<Object> releaseHook;
+    private int unflushedWrites;
+    private long firstUnflushedNanos;
+
+    public OutboundReleaser(Consumer<Object> releaseHook) {
+        super(true);
+        this.releaseHook = releaseHook;
+    }
+
+    @Override
+    protected void release(Object msg, ChannelPromise promise, long nowNanos) {
+        if (!ctx.channel().isOpen()) {
+            discard(msg, promise, new ClosedChannelException());
+            return;
+        }
+        if (releaseHook != null) {
+            releaseHook.accept(msg);
+        }
+        ctx.write(msg, promise);
+        if (unflushedWrites++ == 0) {
+            firstUnflushedNanos = nowNanos;
+        }
+        if (PingEqualizerConfig.get().getFlushPolicy() == PingEqualizerConfig.FlushPolicy.IMMEDIATE) {
+            flushReleased();
+        }
+    }
+
+    @Override
+    protected void beforeWait(long nextReleaseNanos) {
+        PingEqualizerConfig config = PingEqualizerConfig.get();
+        boolean coalesce = config.getFlushPolicy() == PingEqualizerConfig.FlushPolicy.COALESCE
+                && nextReleaseNanos - firstUnflushedNanos <= config.getFlushCoalesceNanos();
+        if (!coalesce) {
+            flushReleased();
+        }
+    }
+
+    @Override
+    protected void onIdle() {
+        flushReleased();
+    }
+
+    @Override
+    protected void onSaturationChanged(boolean saturated) {
+        // surface the held backlog through the channel's writability like Netty's own outbound buffer
+        ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+        if (buffer != null) {
+            buffer.setUserDefinedWritability(WRITABILITY_INDEX, !saturated);
+        }
+    }
+
+    private void flushReleased() {
+        if (unflushedWrites == 0) {
+            return;
+        }
+        if (ctx.channel().isOpen()) {
+            ctx.flush();
+        }
+        DelayLineMetrics.recordFlush(unflushedWrites);
+        unflushedWrites = 0;
+    }
+}
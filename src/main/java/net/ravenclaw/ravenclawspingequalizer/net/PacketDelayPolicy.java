@@ -0,0 +1,188 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.c2s.common.KeepAliveC2SPacket;
+import net.minecraft.network.packet.c2s.play.PlayerActionC2SPacket;
+import net.minecraft.network.packet.c2s.play.PlayerInteractBlockC2SPacket;
+import net.minecraft.network.packet.c2s.play.PlayerInteractItemC2SPacket;
+import net.minecraft.network.packet.c2s.query.QueryPingC2SPacket;
+import net.minecraft.network.packet.s2c.common.KeepAliveS2CPacket;
+import net.minecraft.network.packet.s2c.play.BundleS2CPacket;
+import net.minecraft.network.packet.s2c.play.ChunkBiomeDataS2CPacket;
+import net.minecraft.network.packet.s2c.play.ChunkDataS2CPacket;
+import net.minecraft.network.packet.s2c.play.ChunkDeltaUpdateS2CPacket;
+import net.minecraft.network.packet.s2c.play.CommandTreeS2CPacket;
+import net.minecraft.network.packet.s2c.play.InventoryS2CPacket;
+import net.minecraft.network.packet.s2c.play.LightUpdateS2CPacket;
+import net.minecraft.network.packet.s2c.play.PlayerActionResponseS2CPacket;
+import net.minecraft.network.packet.s2c.query.PingResultS2CPacket;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerConfig;
+
+/**
+ * Per-packet-class delay behaviour, resolved from the first packet of each class and cached
+ * through a {@link ClassValue} so the handler's hot path is a single lookup.
+ */
+public final class PacketDelayPolicy {
+
+    public enum Kind { BYPASS, DELAY, PING_PROBE }
+
+    /** Passive round-trip sources a packet class takes part in; NONE for almost all traffic. */
+    public enum Sampling { NONE, KEEP_ALIVE, SEQUENCE_REQUEST, SEQUENCE_ACK }
+
+    // decoded packets carry no byte count; small play packets average well under this
+    private static final int DEFAULT_ESTIMATED_BYTES = 64;
+
+    private static final ClassValue<Slot> SLOTS = new ClassValue<>() {
+        @Override
+        protected Slot computeValue(Class<?> type) {
+            return new Slot();
+        }
+    };
+
+    private static final class Slot {
+        volatile PacketDelayPolicy policy;
+    }
+
+    private final Kind kind;
+    private final double delayFraction;
+    private final Sampling sampling;
+    private final int estimatedBytes;
+
+    private PacketDelayPolicy(Kind kind, double delayFraction, Sampling sampling, int estimatedBytes) {
+        this.kind = kind;
+        this.delayFraction = delayFraction;
+        this.sampling = sampling;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public static PacketDelayPolicy of(Packet<?> packet) {
+        Slot slot = SLOTS.get(packet.getClass());
+        PacketDelayPolicy policy = slot.policy;
+        if (policy == null) {
+            // the config is read once at startup, so a resolved policy never goes stale
+            policy = resolve(packet, PingEqualizerConfig.get());
+            slot.policy = policy;
+        }
+        return policy;
+    }
+
+    private static PacketDelayPolicy resolve(Packet<?> packet, PingEqualizerConfig config) {
+        // transitionsNetworkState() is constant per packet class, so one instance is enough
+        if (packet.transitionsNetworkState()) {
+            return new PacketDelayPolicy(Kind.BYPASS, 0.0, Sampling.NONE, resolveEstimatedBytes(packet));
+        }
+        Kind kind = packet instanceof QueryPingC2SPacket || packet instanceof PingResultS2CPacket
+                ? Kind.PING_PROBE
+                : Kind.DELAY;
+        double fraction = 1.0;
+        if (kind == Kind.DELAY) {
+            fraction = config.getPacketDelayFraction(packet.getPacketId().id().toString(), 1.0);
+        }
+        return new PacketDelayPolicy(kind, fraction, resolveSampling(packet), resolveEstimatedBytes(packet));
+    }
+
+    /**
+     * Typical wire size of a decoded packet class. Only the bulk world-data packets need a real
+     * figure: they are what actually fills the inbound line during a chunk load, and counting them
+     * as small packets would keep the watermark from ever tripping.
+     */
+    private static int resolveEstimatedBytes(Packet<?> packet) {
+        if (packet instanceof ChunkDataS2CPacket) {
+            return 12 * 1024;
+        }
+        if (packet instanceof CommandTreeS2CPacket) {
+            return 8 * 1024;
+        }
+        if (packet instanceof LightUpdateS2CPacket) {
+            return 4 * 1024;
+        }
+        if (packet instanceof ChunkBiomeDataS2CPacket || packet instanceof InventoryS2CPacket) {
+            return 1024;
+        }
+        if (packet instanceof ChunkDeltaUpdateS2CPacket) {
+            return 256;
+        }
+        return DEFAULT_ESTIMATED_BYTES;
+    }
+
+    private static Sampling resolveSampling(Packet<?> packet) {
+        if (packet instanceof KeepAliveS2CPacket || packet instanceof KeepAliveC2SPacket) {
+            return Sampling.KEEP_ALIVE;
+        }
+        if (packet instanceof PlayerActionC2SPacket
+                || packet instanceof PlayerInteractBlockC2SPacket
+                || packet instanceof PlayerInteractItemC2SPacket) {
+            return Sampling.SEQUENCE_REQUEST;
+        }
+        if (packet instanceof PlayerActionResponseS2CPacket) {
+            return Sampling.SEQUENCE_ACK;
+        }
+        return Sampling.NONE;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public boolean isBypass() {
+        return kind == Kind.BYPASS;
+    }
+
+    public boolean isPingProbe() {
+        return kind == Kind.PING_PROBE;
+    }
+
+    /**
+     * KeepAlives are delayed like any other packet, but their residence on the client is timed
+     * to correct the server's own latency measurement.
+     */
+    public boolean isKeepAlive() {
+        return sampling == Sampling.KEEP_ALIVE;
+    }
+
+    public Sampling sampling() {
+        return sampling;
+    }
+
+    /**
+     * Sequence number carried by a {@link Sampling#SEQUENCE_REQUEST} or
+     * {@link Sampling#SEQUENCE_ACK} packet; zero means the action was not sequenced.
+     */
+    public static int sequenceOf(Packet<?> packet) {
+        if (packet instanceof PlayerActionC2SPacket action) {
+            return action.getSequence();
+        }
+        if (packet instanceof PlayerInteractBlockC2SPacket interact) {
+            return interact.getSequence();
+        }
+        if (packet instanceof PlayerInteractItemC2SPacket interact) {
+            return interact.getSequence();
+        }
+        if (packet instanceof PlayerActionResponseS2CPacket response) {
+            return response.sequence();
+        }
+        return 0;
+    }
+
+    /**
+     * Byte estimate charged against the watermark for a decoded packet. Bundles are summed over
+     * their members so a bundled chunk batch weighs what its chunks do.
+     */
+    public static int estimateBytes(Packet<?> packet) {
+        if (packet instanceof BundleS2CPacket bundle) {
+            long total = 0;
+            for (Packet<?> member : bundle.getPackets()) {
+                total += estimateBytes(member);
+            }
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+        return of(packet).estimatedBytes;
+    }
+
+    public long scaleDelay(long delay) {
+        if (delayFraction == 1.0) {
+            return delay;
+        }
+        return Math.round(delay * delayFraction);
+    }
+}
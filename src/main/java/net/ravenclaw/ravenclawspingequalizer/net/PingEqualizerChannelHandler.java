@@ -1,8 +1,6 @@
 package net.ravenclaw.ravenclawspingequalizer.net;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
 
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -12,313 +10,277 @@ import net.minecraft.network.packet.c2s.common.KeepAliveC2SPacket;
 import net.minecraft.network.packet.c2s.query.QueryPingC2SPacket;
 import net.minecraft.network.packet.s2c.common.KeepAliveS2CPacket;
 import net.minecraft.network.packet.s2c.query.PingResultS2CPacket;
+import net.ravenclaw.ravenclawspingequalizer.DelayPlan;
 import net.ravenclaw.ravenclawspingequalizer.PingEqualizerState;
 
 public class PingEqualizerChannelHandler extends ChannelDuplexHandler {
 
     public static final String HANDLER_NAME = "ping_equalizer";
 
-    private static final long PRECISION_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
-    private static final long MIN_RESCHEDULE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final OutboundReleaser outbound = new OutboundReleaser(null);
+    private final InboundReleaser inbound = new InboundReleaser(PingEqualizerChannelHandler::onInboundReleased);
 
-    private final ConcurrentLinkedQueue<OutboundTask> outboundQueue = new ConcurrentLinkedQueue<>();
-    private final ConcurrentLinkedQueue<InboundTask> inboundQueue = new ConcurrentLinkedQueue<>();
-    private final AtomicBoolean processingOutbound = new AtomicBoolean(false);
-    private final AtomicBoolean processingInbound = new AtomicBoolean(false);
+    private final SequenceAckTracker sequenceAcks = new SequenceAckTracker();
 
     private volatile boolean active = true;
     private volatile ChannelHandlerContext savedContext;
+    private volatile EncodedFrameDelayHandler frameLine;
+    private volatile RawFrameDelayHandler rawFrameLine;
 
-    private static final class OutboundTask {
-        final Object msg;
-        final ChannelPromise promise;
-        final long sendTimeNanos;
-
-        OutboundTask(Object msg, ChannelPromise promise, long sendTimeNanos) {
-            this.msg = msg;
-            this.promise = promise;
-            this.sendTimeNanos = sendTimeNanos;
+    public void setActive(boolean active) {
+        this.active = active;
+        RawFrameDelayHandler rawFrames = rawFrameLine;
+        if (rawFrames != null) {
+            rawFrames.setActive(active);
+        }
+        if (!active) {
+            flushAllQueues();
         }
     }
 
-    private static final class InboundTask {
-        final Object msg;
-        final long deliverTimeNanos;
+    /**
+     * True when neither this handler nor its frame lines hold anything, so the whole set can be
+     * taken out of the pipeline without reordering traffic. Call on the event loop.
+     */
+    public boolean isIdle() {
+        EncodedFrameDelayHandler frames = frameLine;
+        RawFrameDelayHandler rawFrames = rawFrameLine;
+        return outbound.isEmpty() && inbound.isEmpty()
+                && (frames == null || frames.isIdle())
+                && (rawFrames == null || rawFrames.isIdle());
+    }
 
-        InboundTask(Object msg, long deliverTimeNanos) {
-            this.msg = msg;
-            this.deliverTimeNanos = deliverTimeNanos;
-        }
+    public void setFrameLine(EncodedFrameDelayHandler frameLine) {
+        this.frameLine = frameLine;
     }
 
-    public void setActive(boolean active) {
-        this.active = active;
-        if (!active) {
-            flushAllQueues();
-        }
+    public void setRawFrameLine(RawFrameDelayHandler rawFrameLine) {
+        this.rawFrameLine = rawFrameLine;
+        rawFrameLine.setActive(active);
     }
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) {
         this.savedContext = ctx;
+        outbound.attach(ctx);
+        inbound.attach(ctx);
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) {
-        flushAllQueues();
+        flushQueuesNow();
+        outbound.detach();
+        inbound.detach();
         this.savedContext = null;
     }
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         if (!active || !(msg instanceof Packet<?> packet)) {
+            if (!outbound.isEmpty()) {
+                // still holding earlier writes (a paced flush, or packets ahead of a protocol switch);
+                // stay behind them so codec changes reach the encoder after the packets they follow
+                queueOutbound(msg, promise, 0);
+                return;
+            }
             super.write(ctx, msg, promise);
             return;
         }
 
-        if (shouldBypassPacket(packet)) {
-            queueOutbound(ctx, msg, promise, 0);
-            return;
+        EncodedFrameDelayHandler frames = frameLine;
+        if (frames != null && !frames.isAttached()) {
+            frames = null;
         }
 
-        if (packet instanceof QueryPingC2SPacket qp) {
-            PingEqualizerState.getInstance().onPingSent(qp.getStartTime());
+        PacketDelayPolicy policy = PacketDelayPolicy.of(packet);
+        if (policy.isBypass()) {
+            if (frames != null) {
+                super.write(ctx, msg, promise);
+            } else {
+                queueOutbound(msg, promise, 0);
+            }
+            return;
         }
 
         PingEqualizerState state = PingEqualizerState.getInstance();
-        if (state.getMode() == PingEqualizerState.Mode.OFF && outboundQueue.isEmpty()) {
-            if (packet instanceof QueryPingC2SPacket qp) {
-                PingEqualizerState.getInstance().onPingActuallySent(qp.getStartTime());
+        // one snapshot per packet, so its sampling and its delay come from the same plan
+        DelayPlan plan = state.getPlan();
+        long startTime = 0;
+        if (policy.isPingProbe()) {
+            startTime = ((QueryPingC2SPacket) packet).getStartTime();
+            state.onPingSent(startTime);
+            long probe = startTime;
+            promise = stampWireEgress(promise, sentNanos -> state.onPingWireSent(probe, sentNanos));
+        } else if (policy.isKeepAlive()) {
+            long id = ((KeepAliveC2SPacket) packet).getId();
+            promise = stampWireEgress(promise, sentNanos -> state.onKeepAliveReplySent(id, sentNanos));
+        } else if (policy.sampling() == PacketDelayPolicy.Sampling.SEQUENCE_REQUEST && !plan.isOff()) {
+            int sequence = PacketDelayPolicy.sequenceOf(packet);
+            if (sequence > 0) {
+                // the listener runs on the event loop, which also owns the tracker
+                promise = stampWireEgress(promise, sentNanos -> sequenceAcks.onSent(sequence, sentNanos));
             }
-            super.write(ctx, msg, promise);
-            return;
         }
 
-        long delay = state.getOutboundDelayPortion();
+        long delay = policy.scaleDelay(plan.outboundNanos());
 
-        if (delay <= 0 && outboundQueue.isEmpty()) {
-            if (packet instanceof QueryPingC2SPacket qp) {
-                PingEqualizerState.getInstance().onPingActuallySent(qp.getStartTime());
+        if (frames != null) {
+            if (policy.isPingProbe()) {
+                state.recordPingOutboundDelay(startTime, delay);
+            }
+            frames.notePlanDelay(plan.outboundNanos());
+            frames.stampNextWrite(delay);
+            try {
+                super.write(ctx, msg, promise);
+            } finally {
+                frames.clearStamp();
             }
-            super.write(ctx, msg, promise);
             return;
         }
 
-        if (packet instanceof QueryPingC2SPacket qp) {
-            PingEqualizerState.getInstance().recordPingOutboundDelay(qp.getStartTime(), delay);
+        outbound.notePlanDelay(plan.outboundNanos());
+        if (delay <= 0 && outbound.isEmpty()) {
+            super.write(ctx, msg, promise);
+            return;
         }
 
-        queueOutbound(ctx, msg, promise, delay);
-    }
+        if (policy.isPingProbe()) {
+            state.recordPingOutboundDelay(startTime, delay);
+        }
 
-    private void queueOutbound(ChannelHandlerContext ctx, Object msg, ChannelPromise promise, long delayMs) {
-        long sendTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
-        outboundQueue.offer(new OutboundTask(msg, promise, sendTime));
-        processOutboundQueue(ctx);
+        queueOutbound(msg, promise, delay);
     }
 
-    private void processOutboundQueue(ChannelHandlerContext ctx) {
-        if (!processingOutbound.compareAndSet(false, true)) {
-            return;
-        }
-
-        if (ctx.executor().inEventLoop()) {
-            drainOutbound(ctx);
-        } else {
-            ctx.executor().execute(() -> drainOutbound(ctx));
-        }
+    private void queueOutbound(Object msg, ChannelPromise promise, long delayNanos) {
+        outbound.enqueue(msg, promise, System.nanoTime() + delayNanos);
     }
 
-    private void drainOutbound(ChannelHandlerContext ctx) {
-        boolean wrote = false;
-        try {
-            while (true) {
-                OutboundTask task = outboundQueue.peek();
-                if (task == null) {
-                    processingOutbound.set(false);
-                    if (wrote && ctx.channel().isOpen()) {
-                        ctx.flush();
-                    }
-                    return;
-                }
-
-                long delayNanos = task.sendTimeNanos - System.nanoTime();
-                if (delayNanos <= 0) {
-                    outboundQueue.poll();
-                    if (ctx.channel().isOpen()) {
-                        if (task.msg instanceof QueryPingC2SPacket qp) {
-                            PingEqualizerState.getInstance().onPingActuallySent(qp.getStartTime());
-                        }
-                        ctx.write(task.msg, task.promise);
-                        wrote = true;
-                    }
-                    continue;
-                }
-
-                if (wrote && ctx.channel().isOpen()) {
-                    ctx.flush();
-                    wrote = false;
-                }
-
-                if (delayNanos <= PRECISION_WINDOW_NANOS) {
-                    spinWait(delayNanos);
-                    continue;
-                }
-
-                long waitNanos = Math.max(delayNanos - PRECISION_WINDOW_NANOS, MIN_RESCHEDULE_NANOS);
-                ctx.executor().schedule(() -> processOutboundQueue(ctx), waitNanos, TimeUnit.NANOSECONDS);
-                processingOutbound.set(false);
-                return;
+    /**
+     * The promise completes once the packet's bytes are handed to the socket, after encoding,
+     * compression and any delay line, so its completion time is the packet's wire egress.
+     */
+    private static ChannelPromise stampWireEgress(ChannelPromise promise, LongConsumer onSent) {
+        ChannelPromise stamped = promise.unvoid();
+        stamped.addListener(future -> {
+            if (future.isSuccess()) {
+                onSent.accept(System.nanoTime());
             }
-        } catch (Exception e) {
-            processingOutbound.set(false);
-            throw e;
-        }
+        });
+        return stamped;
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (!active || !(msg instanceof Packet<?> packet)) {
+            if (!inbound.isEmpty()) {
+                queueInbound(msg, 0);
+                return;
+            }
             super.channelRead(ctx, msg);
             return;
         }
 
-        if (shouldBypassPacket(packet)) {
-            queueInbound(ctx, msg, 0);
-            return;
-        }
-
+        PacketDelayPolicy policy = PacketDelayPolicy.of(packet);
         PingEqualizerState state = PingEqualizerState.getInstance();
-        if (state.getMode() == PingEqualizerState.Mode.OFF && inboundQueue.isEmpty()) {
-            if (packet instanceof PingResultS2CPacket pingResult) {
-                state.onPingArrived(pingResult.startTime());
-                state.handlePingResult(pingResult);
+        DelayPlan plan = state.getPlan();
+        RawFrameDelayHandler rawFrames = rawFrameLine;
+        boolean rawDelayed = rawFrames != null && rawFrames.isAttached();
+        if (policy.sampling() != PacketDelayPolicy.Sampling.NONE) {
+            samplePassive(state, plan, policy, packet, rawDelayed);
+        }
+        if (rawDelayed && inbound.isEmpty()) {
+            // already delayed as a wire frame before decoding
+            if (policy.isPingProbe()) {
+                onInboundReleased(msg);
             }
             super.channelRead(ctx, msg);
             return;
         }
 
-        long delay = state.getInboundDelayPortion();
+        if (policy.isBypass()) {
+            queueInbound(msg, 0);
+            return;
+        }
 
-        if (delay <= 0 && inboundQueue.isEmpty()) {
-            if (packet instanceof PingResultS2CPacket pingResult) {
-                state.onPingArrived(pingResult.startTime());
-                state.handlePingResult(pingResult);
+        long delay = policy.scaleDelay(plan.inboundNanos());
+        inbound.notePlanDelay(plan.inboundNanos());
+
+        if (delay <= 0 && inbound.isEmpty()) {
+            if (policy.isPingProbe()) {
+                onInboundReleased(msg);
             }
             super.channelRead(ctx, msg);
             return;
         }
 
-        if (packet instanceof PingResultS2CPacket ping) {
-            PingEqualizerState.getInstance().recordPingInboundDelay(ping.startTime(), delay);
+        if (policy.isPingProbe()) {
+            state.recordPingInboundDelay(((PingResultS2CPacket) packet).startTime(), delay);
         }
 
-        queueInbound(ctx, msg, delay);
-    }
-
-    private void queueInbound(ChannelHandlerContext ctx, Object msg, long delayMs) {
-        long deliverTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
-        inboundQueue.offer(new InboundTask(msg, deliverTime));
-        processInboundQueue(ctx);
+        queueInbound(msg, delay);
     }
 
-    private void processInboundQueue(ChannelHandlerContext ctx) {
-        if (!processingInbound.compareAndSet(false, true)) {
-            return;
-        }
-
-        if (ctx.executor().inEventLoop()) {
-            drainInbound(ctx);
-        } else {
-            ctx.executor().execute(() -> drainInbound(ctx));
+    private void samplePassive(PingEqualizerState state, DelayPlan plan, PacketDelayPolicy policy,
+                               Packet<?> packet, boolean rawDelayed) {
+        // the raw line has already held this frame for its inbound delay before decoding
+        long priorDelay = rawDelayed ? plan.inboundNanos() : 0;
+        long now = System.nanoTime();
+        if (policy.isKeepAlive()) {
+            state.onKeepAliveReceived(((KeepAliveS2CPacket) packet).getId(), now, priorDelay);
+        } else if (policy.sampling() == PacketDelayPolicy.Sampling.SEQUENCE_ACK) {
+            long rtt = sequenceAcks.onAck(PacketDelayPolicy.sequenceOf(packet), now);
+            if (rtt >= 0) {
+                state.onSequenceAckSample(Math.max(0, rtt - priorDelay));
+            }
         }
     }
 
-    private void drainInbound(ChannelHandlerContext ctx) {
-        try {
-            while (true) {
-                InboundTask task = inboundQueue.peek();
-                if (task == null) {
-                    processingInbound.set(false);
-                    return;
-                }
-
-                long delayNanos = task.deliverTimeNanos - System.nanoTime();
-                if (delayNanos <= 0) {
-                    inboundQueue.poll();
-                    if (ctx.channel().isOpen()) {
-                        if (task.msg instanceof PingResultS2CPacket pingResult) {
-                            PingEqualizerState state = PingEqualizerState.getInstance();
-                            state.onPingArrived(pingResult.startTime());
-                            state.handlePingResult(pingResult);
-                        }
-                        ctx.fireChannelRead(task.msg);
-                    }
-                    continue;
-                }
-
-                if (delayNanos <= PRECISION_WINDOW_NANOS) {
-                    spinWait(delayNanos);
-                    continue;
-                }
-
-                long waitNanos = Math.max(delayNanos - PRECISION_WINDOW_NANOS, MIN_RESCHEDULE_NANOS);
-                ctx.executor().schedule(() -> processInboundQueue(ctx), waitNanos, TimeUnit.NANOSECONDS);
-                processingInbound.set(false);
-                return;
-            }
-        } catch (Exception e) {
-            processingInbound.set(false);
-            throw e;
-        }
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        inbound.readComplete();
     }
 
-    private boolean shouldBypassPacket(Packet<?> packet) {
-        return packet.transitionsNetworkState();
+    private void queueInbound(Object msg, long delayNanos) {
+        inbound.enqueue(msg, null, System.nanoTime() + delayNanos);
     }
 
-    private static void spinWait(long nanos) {
-        long deadline = System.nanoTime() + nanos;
-        while (System.nanoTime() < deadline) {
-            Thread.onSpinWait();
+    private static void onInboundReleased(Object msg) {
+        if (msg instanceof PingResultS2CPacket pingResult) {
+            PingEqualizerState state = PingEqualizerState.getInstance();
+            state.onPingArrived(pingResult.startTime());
+            state.handlePingResult(pingResult);
         }
     }
 
     public void flushAllQueues() {
+        EncodedFrameDelayHandler frames = frameLine;
+        if (frames != null) {
+            frames.flushAllQueues();
+        }
+        RawFrameDelayHandler rawFrames = rawFrameLine;
+        if (rawFrames != null) {
+            rawFrames.flushAllQueues();
+        }
+
         ChannelHandlerContext ctx = savedContext;
-        if (ctx == null || !ctx.channel().isOpen()) {
-            outboundQueue.clear();
-            inboundQueue.clear();
-            processingOutbound.set(false);
-            processingInbound.set(false);
+        if (ctx == null) {
             return;
         }
 
         if (ctx.executor().inEventLoop()) {
-            flushQueuesNow(ctx);
+            drainQueuesPaced();
         } else {
-            ctx.executor().execute(() -> flushQueuesNow(ctx));
+            ctx.executor().execute(this::drainQueuesPaced);
         }
     }
 
-    private void flushQueuesNow(ChannelHandlerContext ctx) {
-        OutboundTask outTask;
-        while ((outTask = outboundQueue.poll()) != null) {
-            if (ctx.channel().isOpen()) {
-                ctx.write(outTask.msg, outTask.promise);
-            }
-        }
-        if (ctx.channel().isOpen()) {
-            ctx.flush();
-        }
-        processingOutbound.set(false);
+    private void drainQueuesPaced() {
+        outbound.releaseAllPaced();
+        inbound.releaseAllPaced();
+    }
 
-        InboundTask inTask;
-        while ((inTask = inboundQueue.poll()) != null) {
-            if (ctx.channel().isOpen()) {
-                ctx.fireChannelRead(inTask.msg);
-            }
-        }
-        processingInbound.set(false);
+    private void flushQueuesNow() {
+        outbound.releaseAll();
+        inbound.releaseAll();
     }
 }
@@ -0,0 +1,155 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Shared high-resolution timer used when precision release is enabled. Handlers arm a
+ * {@link Target} for the exact release deadline; this thread parks until shortly before it,
+ * spins the remainder and then hands the release back to the target's event loop, so the
+ * I/O thread itself never spins.
+ */
+public final class PrecisionReleaseThread implements Runnable {
+
+    private static final long MIN_SPIN_MARGIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_SPIN_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long INITIAL_SPIN_MARGIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final double OVERSHOOT_ALPHA = 0.1;
+
+    private static volatile PrecisionReleaseThread instance;
+
+    private final List<Target> armed = new ArrayList<>();
+    private final Thread thread;
+    private volatile long spinMarginNanos = INITIAL_SPIN_MARGIN_NANOS;
+    private volatile double parkOvershootNanos = 0;
+
+    public static final class Target {
+        final EventExecutor executor;
+        final Runnable release;
+        long deadlineNanos;
+        boolean armed;
+
+        public Target(EventExecutor executor, Runnable release) {
+            this.executor = executor;
+            this.release = release;
+        }
+    }
+
+    private PrecisionReleaseThread() {
+        this.thread = new Thread(this, "PingEqualizer Precision Release");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+    }
+
+    public static PrecisionReleaseThread getInstance() {
+        PrecisionReleaseThread local = instance;
+        if (local == null) {
+            synchronized (PrecisionReleaseThread.class) {
+                local = instance;
+                if (local == null) {
+                    local = new PrecisionReleaseThread();
+                    local.thread.start();
+                    instance = local;
+                }
+            }
+        }
+        return local;
+    }
+
+    public void arm(Target target, long deadlineNanos) {
+        boolean wake;
+        synchronized (armed) {
+            if (target.armed && target.deadlineNanos - deadlineNanos <= 0) {
+                return;
+            }
+            target.deadlineNanos = deadlineNanos;
+            if (!target.armed) {
+                target.armed = true;
+                armed.add(target);
+            }
+            wake = earliestLocked() == target;
+        }
+        if (wake) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public void disarm(Target target) {
+        synchronized (armed) {
+            if (target.armed) {
+                target.armed = false;
+                armed.remove(target);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Target next;
+            long deadline;
+            synchronized (armed) {
+                next = earliestLocked();
+                deadline = next == null ? 0 : next.deadlineNanos;
+            }
+            if (next == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            long margin = spinMarginNanos;
+            if (remaining > margin) {
+                long intendedWake = System.nanoTime() + remaining - margin;
+                LockSupport.parkNanos(this, remaining - margin);
+                recordParkOvershoot(System.nanoTime() - intendedWake);
+                continue;
+            }
+
+            while (System.nanoTime() - deadline < 0) {
+                Thread.onSpinWait();
+            }
+
+            synchronized (armed) {
+                if (!next.armed || next.deadlineNanos != deadline) {
+                    continue;
+                }
+                next.armed = false;
+                armed.remove(next);
+            }
+            DelayLineMetrics.recordPrecisionHandoff(System.nanoTime() - deadline, spinMarginNanos);
+            try {
+                next.executor.execute(next.release);
+            } catch (RuntimeException e) {
+                org.slf4j.LoggerFactory.getLogger("PingEqualizer")
+                    .debug("Precision release hand-off rejected: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Target earliestLocked() {
+        Target best = null;
+        for (int i = 0, n = armed.size(); i < n; i++) {
+            Target candidate = armed.get(i);
+            if (best == null || candidate.deadlineNanos - best.deadlineNanos < 0) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private void recordParkOvershoot(long overshootNanos) {
+        // an early wake (unpark for a sooner target) says nothing about timer slack
+        if (overshootNanos < 0) {
+            return;
+        }
+        double smoothed = parkOvershootNanos * (1.0 - OVERSHOOT_ALPHA) + overshootNanos * OVERSHOOT_ALPHA;
+        parkOvershootNanos = smoothed;
+        long margin = (long) (smoothed * 2.0) + MIN_SPIN_MARGIN_NANOS;
+        spinMarginNanos = Math.max(MIN_SPIN_MARGIN_NANOS, Math.min(MAX_SPIN_MARGIN_NANOS, margin));
+    }
+}
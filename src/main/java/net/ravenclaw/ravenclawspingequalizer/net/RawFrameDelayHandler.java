@@ -0,0 +1,125 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.util.NoSuchElementException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerState;
+
+/**
+ * Inbound delay line installed directly after the frame splitter, so it holds still-compressed
+ * wire frames rather than decoded packets. Ping probe replies are recognised by peeking at the
+ * frame header and payload instead of decoding it; their wire arrival is stamped upstream by
+ * {@link WireIngressStampHandler}.
+ */
+public class RawFrameDelayHandler extends ChannelInboundHandlerAdapter {
+
+    public static final String HANDLER_NAME = "ping_equalizer_raw";
+    public static final String SPLITTER_NAME = "splitter";
+    public static final String DECOMPRESS_NAME = "decompress";
+
+    private final InboundReleaser inbound = new InboundReleaser(null);
+    private volatile boolean active = true;
+    private boolean compressedFrames;
+    private boolean relocating;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        inbound.attach(ctx);
+        compressedFrames = WireIngressStampHandler.hasInflaterAfter(ctx.pipeline(), HANDLER_NAME);
+        if (!inbound.isEmpty()) {
+            // frames carried over from a relocation resume on their original deadlines
+            inbound.drain();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (!relocating) {
+            inbound.releaseAll();
+        }
+        inbound.detach();
+    }
+
+    /**
+     * Moves the raw line directly ahead of {@code baseName} while keeping everything it holds, so
+     * queued frames later pass through whatever now sits between the two positions (the inflater,
+     * once compression is enabled). Netty never re-adds a non-sharable handler, so the held frames
+     * move into a fresh instance that takes this one's place; callers switch to the returned
+     * handler. Must run on the event loop.
+     */
+    public RawFrameDelayHandler moveBefore(ChannelPipeline pipeline, String baseName) {
+        if (pipeline.get(baseName) == null) {
+            throw new NoSuchElementException(baseName);
+        }
+        RawFrameDelayHandler moved = new RawFrameDelayHandler();
+        moved.active = active;
+        relocating = true;
+        try {
+            pipeline.remove(this);
+        } finally {
+            relocating = false;
+        }
+        inbound.transferTo(moved.inbound);
+        pipeline.addBefore(baseName, HANDLER_NAME, moved);
+        return moved;
+    }
+
+    public boolean isAttached() {
+        return inbound.isAttached();
+    }
+
+    public boolean isIdle() {
+        return inbound.isEmpty();
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!active || !(msg instanceof ByteBuf frame)) {
+            if (inbound.isEmpty()) {
+                ctx.fireChannelRead(msg);
+            } else {
+                inbound.enqueue(msg, null, System.nanoTime());
+            }
+            return;
+        }
+
+        long readNanos = System.nanoTime();
+        PingEqualizerState state = PingEqualizerState.getInstance();
+        long delay = state.getPlan().inboundNanos();
+        long probeStartTime = WireIngressStampHandler.peekProbeStartTime(frame, compressedFrames);
+        if (probeStartTime != WireIngressStampHandler.NO_PROBE) {
+            state.recordPingInboundDelay(probeStartTime, delay);
+        }
+        inbound.notePlanDelay(delay);
+
+        if (delay <= 0 && inbound.isEmpty()) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        inbound.enqueue(msg, null, readNanos + delay);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        inbound.readComplete();
+    }
+
+    public void flushAllQueues() {
+        ChannelHandlerContext ctx = inbound.ctx;
+        if (ctx == null) {
+            return;
+        }
+        if (ctx.executor().inEventLoop()) {
+            inbound.releaseAllPaced();
+        } else {
+            ctx.executor().execute(inbound::releaseAllPaced);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads a backlog of due messages over a ramp instead of releasing it in one pass. Releases go
+ * out in small groups at least {@link #MIN_SLOT_NANOS} apart, so pacing rides on the timing
+ * wheel rather than spinning the event loop. Confined to the owning releaser's event loop.
+ */
+final class ReleasePacer {
+
+    static final long MIN_SLOT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private int remaining;
+    private int perSlot;
+    private int releasedInSlot;
+    private long slotNanos;
+    private long nextSlotNanos;
+
+    boolean isActive() {
+        return remaining > 0;
+    }
+
+    void start(int backlog, long nowNanos, long rampNanos) {
+        long slots = Math.max(1, rampNanos / MIN_SLOT_NANOS);
+        perSlot = (int) Math.max(1, (backlog + slots - 1) / slots);
+        slotNanos = rampNanos * perSlot / backlog;
+        remaining = backlog;
+        releasedInSlot = 0;
+        nextSlotNanos = nowNanos;
+    }
+
+    /**
+     * When the next release may go out; at or before {@code nowNanos} means right away.
+     */
+    long nextReleaseNanos() {
+        return nextSlotNanos;
+    }
+
+    void onReleased(long nowNanos) {
+        remaining--;
+        if (++releasedInSlot >= perSlot) {
+            releasedInSlot = 0;
+            // a late wakeup must not bank slots, or the backlog bursts out anyway
+            nextSlotNanos = Math.max(nextSlotNanos, nowNanos) + slotNanos;
+        }
+    }
+
+    void reset() {
+        remaining = 0;
+    }
+}
@@ -0,0 +1,194 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Hashed timing wheel shared by every handler on one event loop. Handlers own a
+ * {@link Timeout} per direction and re-arm it instead of scheduling a fresh task
+ * each time a queue head is not yet due, so the event loop only ever sees a single
+ * periodic ticker per wheel.
+ */
+public final class ReleaseTimingWheel {
+
+    public static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final Map<EventExecutor, ReleaseTimingWheel> WHEELS = new ConcurrentHashMap<>();
+
+    private final EventExecutor executor;
+    private final LongSupplier clock;
+    private final Timeout[] slots = new Timeout[WHEEL_SIZE];
+    private final long originNanos;
+    private long processedTick;
+    private int pending;
+    private ScheduledFuture<?> ticker;
+
+    public static final class Timeout {
+        final Runnable task;
+        long deadlineTick = -1;
+        int slot = -1;
+        Timeout prev;
+        Timeout next;
+
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        public boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    ReleaseTimingWheel(EventExecutor executor, LongSupplier clock) {
+        this.executor = executor;
+        this.clock = clock;
+        this.originNanos = clock.getAsLong();
+    }
+
+    public static ReleaseTimingWheel forExecutor(EventExecutor executor) {
+        ReleaseTimingWheel wheel = WHEELS.get(executor);
+        if (wheel != null) {
+            return wheel;
+        }
+        Future<?> termination;
+        try {
+            termination = executor.terminationFuture();
+        } catch (UnsupportedOperationException e) {
+            // embedded loops have no lifecycle to unregister on, so they get a wheel of their own
+            return new ReleaseTimingWheel(executor, System::nanoTime);
+        }
+        return WHEELS.computeIfAbsent(executor, key -> {
+            termination.addListener(f -> WHEELS.remove(key));
+            return new ReleaseTimingWheel(key, System::nanoTime);
+        });
+    }
+
+    /**
+     * Arms {@code timeout} to run at or shortly after {@code deadlineNanos}. A timeout that is
+     * already armed for an earlier or equal tick is left alone. Must be called on the event loop.
+     */
+    public void schedule(Timeout timeout, long deadlineNanos) {
+        if (ticker == null) {
+            processedTick = Math.max(processedTick, (clock.getAsLong() - originNanos) / TICK_NANOS);
+        }
+        long tick = Math.max(tickFor(deadlineNanos), processedTick + 1);
+        if (timeout.isScheduled()) {
+            if (timeout.deadlineTick <= tick) {
+                return;
+            }
+            // moving an armed timeout earlier: it is already counted in pending
+            unlink(timeout);
+            timeout.deadlineTick = tick;
+            link(timeout, (int) (tick & WHEEL_MASK));
+            return;
+        }
+        timeout.deadlineTick = tick;
+        link(timeout, (int) (tick & WHEEL_MASK));
+        if (pending++ == 0) {
+            startTicker();
+        }
+    }
+
+    public void cancel(Timeout timeout) {
+        if (!timeout.isScheduled()) {
+            return;
+        }
+        unlink(timeout);
+        if (--pending == 0) {
+            stopTicker();
+        }
+    }
+
+    private long tickFor(long deadlineNanos) {
+        long offset = deadlineNanos - originNanos;
+        if (offset <= 0) {
+            return 0;
+        }
+        return (offset + TICK_NANOS - 1) / TICK_NANOS;
+    }
+
+    void advance() {
+        long currentTick = (clock.getAsLong() - originNanos) / TICK_NANOS;
+        long lastTick = Math.min(currentTick, processedTick + WHEEL_SIZE);
+        while (processedTick < lastTick) {
+            processedTick++;
+            expireSlot((int) (processedTick & WHEEL_MASK), currentTick);
+        }
+        processedTick = currentTick;
+        if (pending == 0) {
+            stopTicker();
+        }
+    }
+
+    private void expireSlot(int slot, long currentTick) {
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            if (timeout.deadlineTick > currentTick) {
+                timeout = timeout.next;
+                continue;
+            }
+            unlink(timeout);
+            pending--;
+            timeout.task.run();
+            // the task may have re-armed or cancelled neighbours, so rescan the slot
+            timeout = slots[slot];
+        }
+    }
+
+    private void link(Timeout timeout, int slot) {
+        Timeout head = slots[slot];
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+    }
+
+    /**
+     * Number of armed timeouts; the ticker runs exactly while this is above zero.
+     */
+    int pending() {
+        return pending;
+    }
+
+    boolean isTicking() {
+        return ticker != null;
+    }
+
+    private void startTicker() {
+        if (ticker == null) {
+            ticker = executor.scheduleAtFixedRate(this::advance, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void stopTicker() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+}
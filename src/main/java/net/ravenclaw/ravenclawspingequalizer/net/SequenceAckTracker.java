@@ -0,0 +1,35 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+/**
+ * Pairs block-interaction sequence numbers with the server's acknowledgements. The server acks
+ * the highest sequence it handled each tick, so only an exact match yields a sample; older
+ * sequences covered by the same ack are simply forgotten. Confined to the channel's event loop.
+ */
+final class SequenceAckTracker {
+
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+
+    private final int[] sequences = new int[CAPACITY];
+    private final long[] sentNanos = new long[CAPACITY];
+
+    void onSent(int sequence, long nanos) {
+        int slot = sequence & MASK;
+        sequences[slot] = sequence;
+        sentNanos[slot] = nanos;
+    }
+
+    /**
+     * Round trip from the sequence's wire egress to {@code nowNanos}, or -1 if it was never seen
+     * leaving or has since been overwritten.
+     */
+    long onAck(int sequence, long nowNanos) {
+        int slot = sequence & MASK;
+        if (sequences[slot] != sequence || sentNanos[slot] == 0) {
+            return -1;
+        }
+        long rtt = nowNanos - sentNanos[slot];
+        sentNanos[slot] = 0;
+        return rtt >= 0 ? rtt : -1;
+    }
+}
@@ -0,0 +1,72 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import net.ravenclaw.ravenclawspingequalizer.PingEqualizerState;
+
+/**
+ * Stamps the wire arrival of ping probe replies whichever inbound delay mode is configured. Sits
+ * directly after the frame splitter, ahead of the inflater and the raw line, and recognises a
+ * reply by peeking at the still-compressed frame; every frame passes through untouched.
+ */
+public class WireIngressStampHandler extends ChannelInboundHandlerAdapter {
+
+    public static final String HANDLER_NAME = "ping_equalizer_ingress";
+
+    static final long NO_PROBE = Long.MIN_VALUE;
+
+    // zero dataLength byte (once compressed) + packet id byte + 8 byte start time
+    private static final int MAX_PROBE_FRAME_BYTES = 2 + Long.BYTES;
+    // clientbound PLAY id of pong_response (PingResultS2CPacket) in protocol 767 (1.21); it fits in
+    // one varint byte. KeepAlive and others share the id + long layout, so the id must match too.
+    static final int PLAY_PONG_PACKET_ID = 0x36;
+
+    private boolean compressedFrames;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        compressedFrames = hasInflaterAfter(ctx.pipeline(), HANDLER_NAME);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf frame) {
+            long startTime = peekProbeStartTime(frame, compressedFrames);
+            if (startTime != NO_PROBE) {
+                // still compressed and undecoded, so this is as close to the socket read as the pipeline gets
+                PingEqualizerState.getInstance().onPingWireArrived(startTime, System.nanoTime());
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    static boolean hasInflaterAfter(ChannelPipeline pipeline, String name) {
+        return pipeline.names().indexOf(RawFrameDelayHandler.DECOMPRESS_NAME) > pipeline.names().indexOf(name);
+    }
+
+    /**
+     * Start time echoed by a frame shaped like a PLAY pong reply, or {@link #NO_PROBE}. Does not
+     * move the reader index.
+     */
+    static long peekProbeStartTime(ByteBuf frame, boolean compressedFrames) {
+        int length = frame.readableBytes();
+        if (length > MAX_PROBE_FRAME_BYTES || length < Long.BYTES + 1) {
+            return NO_PROBE;
+        }
+        int index = frame.readerIndex();
+        int end = index + length;
+        if (compressedFrames) {
+            // a non-zero data length means a deflated body, and pong replies are never that large
+            if (frame.getByte(index) != 0) {
+                return NO_PROBE;
+            }
+            index++;
+        }
+        if (end - index != 1 + Long.BYTES || frame.getByte(index) != PLAY_PONG_PACKET_ID) {
+            return NO_PROBE;
+        }
+        return frame.getLong(index + 1);
+    }
+}
@@ -0,0 +1,118 @@
+package net.ravenclaw.ravenclawspingequalizer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class ProbeTableTest {
+
+    private static final long TIMEOUT = 1_000_000_000L;
+
+    @Test
+    void tracksAndForgetsProbes() {
+        ProbeTable table = new ProbeTable(TIMEOUT);
+        ProbeTable.Probe probe = table.insert(1234, 10);
+        probe.appliedDelayNanos = 77;
+
+        assertTrue(table.contains(1234));
+        assertSame(probe, table.get(1234));
+        assertEquals(10, probe.sentNanos);
+        assertEquals(-1, probe.arrivalNanos);
+
+        table.remove(1234);
+        assertFalse(table.contains(1234));
+        assertNull(table.get(1234));
+        assertEquals(0, table.size());
+        assertEquals(1, table.sentCount());
+        assertEquals(1, table.answeredCount());
+        assertEquals(0, table.lostCount());
+    }
+
+    @Test
+    void reinsertingAKeyReusesItsRecord() {
+        ProbeTable table = new ProbeTable(TIMEOUT);
+        ProbeTable.Probe first = table.insert(5, 0);
+        first.wireSentNanos = 99;
+        ProbeTable.Probe second = table.insert(5, 20);
+        assertSame(first, second);
+        assertEquals(1, table.size());
+        assertEquals(20, second.insertedNanos);
+        assertEquals(-1, second.wireSentNanos);
+    }
+
+    @Test
+    void backwardShiftKeepsEveryRemainingKeyReachable() {
+        ProbeTable table = new ProbeTable(TIMEOUT);
+        Set<Long> live = new HashSet<>();
+        Random random = new Random(7);
+        long now = 0;
+        for (int step = 0; step < 20_000; step++) {
+            // clock-like keys cluster, which is what stresses the probe chains
+            long key = 1_000_000 + random.nextInt(200);
+            if (live.size() < 24 && random.nextBoolean()) {
+                table.insert(key, now);
+                live.add(key);
+            } else if (!live.isEmpty()) {
+                long victim = new ArrayList<>(live).get(random.nextInt(live.size()));
+                table.remove(victim);
+                live.remove(victim);
+            }
+            assertEquals(live.size(), table.size());
+            for (long k : live) {
+                assertTrue(table.contains(k), "lost key " + k + " at step " + step);
+                assertEquals(k, table.get(k).key);
+            }
+        }
+    }
+
+    @Test
+    void probesPastTheTimeoutCountAsLost() {
+        ProbeTable table = new ProbeTable(TIMEOUT);
+        table.insert(1, 0);
+        table.insert(2, TIMEOUT / 2);
+        table.insert(3, TIMEOUT + 1);
+
+        assertFalse(table.contains(1));
+        assertTrue(table.contains(2));
+        assertTrue(table.contains(3));
+        assertEquals(1, table.lostCount());
+    }
+
+    @Test
+    void givesUpOnTheOldestProbeOnceTooManyAreLive() {
+        ProbeTable table = new ProbeTable(TIMEOUT);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            long key = 10_000 + i;
+            keys.add(key);
+            assertNotNull(table.insert(key, i));
+        }
+        assertEquals(32, table.size());
+        assertEquals(8, table.lostCount());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i >= 8, table.contains(keys.get(i)));
+        }
+    }
+
+    @Test
+    void clearCountsEverythingOutstandingAsLost() {
+        ProbeTable table = new ProbeTable(TIMEOUT);
+        table.insert(1, 0);
+        table.insert(2, 0);
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(2, table.lostCount());
+        assertFalse(table.contains(1));
+    }
+}
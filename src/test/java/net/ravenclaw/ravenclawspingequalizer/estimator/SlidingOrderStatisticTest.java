@@ -0,0 +1,89 @@
+package net.ravenclaw.ravenclawspingequalizer.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SlidingOrderStatisticTest {
+
+    @Test
+    void emptyWindowHasNoStatistic() {
+        SlidingOrderStatistic window = new SlidingOrderStatistic(4, 0.5);
+        assertEquals(-1, window.get());
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    void minimumFollowsEviction() {
+        SlidingOrderStatistic window = new SlidingOrderStatistic(3, 0.0);
+        assertEquals(50, window.push(50));
+        assertEquals(20, window.push(20));
+        assertEquals(20, window.push(80));
+        assertEquals(20, window.push(90));
+        // 20 falls out of the window here
+        assertEquals(80, window.push(95));
+        assertEquals(3, window.size());
+    }
+
+    @Test
+    void medianOfEvenCountIsTheUpperMiddle() {
+        SlidingOrderStatistic window = new SlidingOrderStatistic(4, 0.5);
+        window.push(10);
+        window.push(40);
+        window.push(20);
+        assertEquals(30, window.push(30));
+    }
+
+    @Test
+    void evictsTheRightCopyOfDuplicates() {
+        SlidingOrderStatistic window = new SlidingOrderStatistic(3, 1.0);
+        window.push(7);
+        window.push(7);
+        window.push(3);
+        assertEquals(7, window.push(3));
+        assertEquals(3, window.push(3));
+    }
+
+    @Test
+    void matchesAFullSortOverARandomStream() {
+        int capacity = 9;
+        double[] quantiles = {0.0, 0.25, 0.5, 0.9, 1.0};
+        for (double quantile : quantiles) {
+            SlidingOrderStatistic window = new SlidingOrderStatistic(capacity, quantile);
+            Deque<Long> recent = new ArrayDeque<>();
+            Random random = new Random(42);
+            for (int i = 0; i < 2_000; i++) {
+                long value = random.nextInt(50);
+                recent.addLast(value);
+                if (recent.size() > capacity) {
+                    recent.removeFirst();
+                }
+                long[] expected = recent.stream().mapToLong(Long::longValue).toArray();
+                Arrays.sort(expected);
+                long want = expected[Math.min(expected.length - 1, (int) (quantile * expected.length))];
+                assertEquals(want, window.push(value), "quantile " + quantile + " at sample " + i);
+            }
+        }
+    }
+
+    @Test
+    void clearEmptiesTheWindow() {
+        SlidingOrderStatistic window = new SlidingOrderStatistic(2, 0.0);
+        window.push(1);
+        window.push(2);
+        window.clear();
+        assertEquals(-1, window.get());
+        assertEquals(9, window.push(9));
+    }
+
+    @Test
+    void rejectsEmptyCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SlidingOrderStatistic(0, 0.5));
+    }
+}
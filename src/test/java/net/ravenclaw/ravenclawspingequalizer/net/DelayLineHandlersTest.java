@@ -0,0 +1,140 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DelayLineHandlersTest {
+
+    private EmbeddedChannel channel;
+    private ChannelPipeline pipeline;
+    private final DelayLineHandlers handlers = new DelayLineHandlers();
+
+    @BeforeEach
+    void setUp() {
+        // pass-through stand-ins for the vanilla codec handlers the lines anchor on
+        channel = new EmbeddedChannel();
+        pipeline = channel.pipeline();
+        pipeline.addLast("splitter", new ChannelDuplexHandler());
+        pipeline.addLast("decoder", new ChannelDuplexHandler());
+        pipeline.addLast("prepender", new ChannelDuplexHandler());
+        pipeline.addLast("encoder", new ChannelDuplexHandler());
+        pipeline.addLast("packet_handler", new ChannelDuplexHandler());
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private void assertInstalled() {
+        List<String> names = pipeline.names();
+        assertEquals(names.indexOf("splitter") + 1, names.indexOf(WireIngressStampHandler.HANDLER_NAME));
+        assertEquals(names.indexOf("splitter") + 2, names.indexOf(RawFrameDelayHandler.HANDLER_NAME));
+        assertEquals(names.indexOf("prepender") - 1, names.indexOf(EncodedFrameDelayHandler.HANDLER_NAME));
+        assertEquals(names.indexOf("packet_handler") - 1, names.indexOf(PingEqualizerChannelHandler.HANDLER_NAME));
+        assertSame(handlers.channelHandler(), pipeline.get(PingEqualizerChannelHandler.HANDLER_NAME));
+    }
+
+    private void assertPassesTraffic() {
+        ByteBuf out = Unpooled.wrappedBuffer(new byte[] {1, 2, 3});
+        assertTrue(channel.writeOutbound(out));
+        ByteBuf written = channel.readOutbound();
+        assertSame(out, written);
+        written.release();
+
+        ByteBuf in = Unpooled.wrappedBuffer(new byte[] {4, 5, 6});
+        assertTrue(channel.writeInbound(in));
+        ByteBuf read = channel.readInbound();
+        assertSame(in, read);
+        read.release();
+    }
+
+    @Test
+    void reinstallsFreshHandlersAfterBeingTurnedOff() {
+        assertTrue(handlers.install(pipeline, "packet_handler", true, true));
+        assertInstalled();
+        PingEqualizerChannelHandler first = handlers.channelHandler();
+
+        // off: the whole set leaves the pipeline once idle
+        assertTrue(handlers.uninstall(pipeline));
+        assertFalse(handlers.isInstalled(pipeline));
+        assertNull(pipeline.get(EncodedFrameDelayHandler.HANDLER_NAME));
+        assertNull(pipeline.get(RawFrameDelayHandler.HANDLER_NAME));
+        assertNull(pipeline.get(WireIngressStampHandler.HANDLER_NAME));
+
+        // on again: re-adding the removed instances would throw ChannelPipelineException
+        assertTrue(handlers.install(pipeline, "packet_handler", true, true));
+        channel.checkException();
+        assertInstalled();
+        assertNotSame(first, handlers.channelHandler());
+        assertPassesTraffic();
+    }
+
+    @Test
+    void survivesRepeatedToggles() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(handlers.install(pipeline, "packet_handler", true, true));
+            assertInstalled();
+            assertPassesTraffic();
+            assertTrue(handlers.uninstall(pipeline));
+        }
+        channel.checkException();
+    }
+
+    @Test
+    void installingTwiceAdoptsWhatIsAlreadyThere() {
+        assertTrue(handlers.install(pipeline, "packet_handler", true, true));
+        PingEqualizerChannelHandler first = handlers.channelHandler();
+        assertFalse(handlers.install(pipeline, "packet_handler", true, true));
+        assertSame(first, handlers.channelHandler());
+        assertInstalled();
+    }
+
+    @Test
+    void stampsIngressWithoutTheRawLine() {
+        handlers.install(pipeline, "packet_handler", false, false);
+        List<String> names = pipeline.names();
+        assertEquals(names.indexOf("splitter") + 1, names.indexOf(WireIngressStampHandler.HANDLER_NAME));
+        assertNull(pipeline.get(RawFrameDelayHandler.HANDLER_NAME));
+        assertNull(pipeline.get(EncodedFrameDelayHandler.HANDLER_NAME));
+        assertPassesTraffic();
+    }
+
+    @Test
+    void reanchorsAheadOfTheInflater() {
+        handlers.install(pipeline, "packet_handler", true, true);
+        // the compression switch inserts the inflater right after the splitter
+        pipeline.addAfter("splitter", RawFrameDelayHandler.DECOMPRESS_NAME, new ChannelDuplexHandler());
+
+        handlers.reanchorFrameLines(pipeline);
+        channel.checkException();
+        List<String> names = pipeline.names();
+        int decompress = names.indexOf(RawFrameDelayHandler.DECOMPRESS_NAME);
+        assertEquals(decompress - 2, names.indexOf(WireIngressStampHandler.HANDLER_NAME));
+        assertEquals(decompress - 1, names.indexOf(RawFrameDelayHandler.HANDLER_NAME));
+        assertSame(handlers.channelHandler(), pipeline.get(PingEqualizerChannelHandler.HANDLER_NAME));
+        assertPassesTraffic();
+    }
+
+    @Test
+    void uninstallingWhenNothingIsInstalledIsANoOp() {
+        assertTrue(handlers.uninstall(pipeline));
+        assertEquals(List.of("splitter", "decoder", "prepender", "encoder", "packet_handler"),
+                pipeline.names().subList(0, 5));
+    }
+}
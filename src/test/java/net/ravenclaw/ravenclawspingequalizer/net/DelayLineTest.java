@@ -0,0 +1,112 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DelayLineTest {
+
+    private static final long SPAN = DelayLine.RUN_SPAN_NANOS;
+
+    @Test
+    void keepsFifoOrderAcrossWrapAroundAndGrowth() {
+        DelayLine line = new DelayLine();
+        // move the head off zero so the ring wraps before it has to grow
+        for (int i = 0; i < 40; i++) {
+            line.add(i * SPAN * 4, "warm" + i, null, 1);
+        }
+        for (int i = 0; i < 40; i++) {
+            line.remove();
+        }
+        assertTrue(line.isEmpty());
+
+        int count = 300;
+        for (int i = 0; i < count; i++) {
+            line.add(i * SPAN * 4, "m" + i, null, i);
+        }
+        assertEquals(count, line.size());
+        assertEquals(count, line.runs());
+        assertEquals((long) count * (count - 1) / 2, line.bytes());
+
+        for (int i = 0; i < count; i++) {
+            assertEquals("m" + i, line.peekMessage());
+            assertEquals(i, line.peekSize());
+            assertEquals(i * SPAN * 4, line.peekDeadline());
+            assertEquals(i * SPAN * 4, line.peekMessageDeadline());
+            line.remove();
+        }
+        assertTrue(line.isEmpty());
+        assertEquals(0, line.runs());
+        assertEquals(0, line.bytes());
+    }
+
+    @Test
+    void messagesWithinOneSpanShareARunAtItsLatestDeadline() {
+        DelayLine line = new DelayLine();
+        long base = 1_000_000;
+        line.add(base, "a", null, 0);
+        line.add(base + SPAN / 2, "b", null, 0);
+        line.add(base + SPAN / 4, "c", null, 0);
+
+        assertEquals(1, line.runs());
+        assertEquals(3, line.peekRunLength());
+        assertEquals(base + SPAN / 2, line.peekDeadline());
+        // each message still remembers its own deadline
+        assertEquals(base, line.peekMessageDeadline());
+        line.remove();
+        assertEquals(base + SPAN / 2, line.peekMessageDeadline());
+        assertEquals(2, line.peekRunLength());
+        line.remove();
+        assertEquals(base + SPAN / 4, line.peekMessageDeadline());
+        line.remove();
+        assertEquals(0, line.runs());
+    }
+
+    @Test
+    void runSpanIsMeasuredFromItsFirstDeadline() {
+        DelayLine line = new DelayLine();
+        long base = 5_000_000;
+        line.add(base, "a", null, 0);
+        line.add(base + SPAN * 3 / 4, "b", null, 0);
+        // within a span of "b" but not of "a", so it must not creep the run forward
+        line.add(base + SPAN * 3 / 2, "c", null, 0);
+
+        assertEquals(2, line.runs());
+        assertEquals(2, line.peekRunLength());
+        assertEquals(base + SPAN * 3 / 4, line.peekDeadline());
+        line.remove();
+        line.remove();
+        assertEquals(1, line.peekRunLength());
+        assertEquals(base + SPAN * 3 / 2, line.peekDeadline());
+    }
+
+    @Test
+    void countDueStopsAtTheFirstRunNotYetDue() {
+        DelayLine line = new DelayLine();
+        line.add(0, "a", null, 0);
+        line.add(10, "b", null, 0);
+        line.add(SPAN * 2, "c", null, 0);
+        line.add(SPAN * 4, "d", null, 0);
+
+        assertEquals(0, line.countDue(5, 100));
+        assertEquals(2, line.countDue(10, 100));
+        assertEquals(3, line.countDue(SPAN * 3, 100));
+        assertEquals(4, line.countDue(SPAN * 4, 100));
+        assertEquals(3, line.countDue(SPAN * 4, 3));
+    }
+
+    @Test
+    void removeClearsReferencesToReleasedMessages() {
+        DelayLine line = new DelayLine();
+        line.add(0, "a", null, 4);
+        line.remove();
+        line.add(SPAN * 8, "b", null, 4);
+        line.remove();
+        assertTrue(line.isEmpty());
+        assertEquals(0, line.bytes());
+        assertNull(line.peekMessage());
+        assertNull(line.peekPromise());
+    }
+}
@@ -0,0 +1,76 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class NanosHistogramTest {
+
+    @Test
+    void bucketsBoundEveryValueWithinSixPercent() {
+        for (long value = 0; value < 1L << 36; value = value * 5 / 4 + 1) {
+            int index = NanosHistogram.indexOf(value);
+            long upper = NanosHistogram.upperBoundOf(index);
+            assertTrue(upper >= value, "upper bound below value " + value);
+            assertTrue(upper - value <= Math.max(1, value / 16), "bucket too wide around " + value);
+        }
+    }
+
+    @Test
+    void bucketIndexesGrowWithTheValue() {
+        int previous = -1;
+        for (long value = 0; value < 1L << 20; value += 7) {
+            int index = NanosHistogram.indexOf(value);
+            assertTrue(index >= previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    void quantilesComeFromTheMatchingBucket() {
+        NanosHistogram histogram = new NanosHistogram(1_000_000);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10_000L);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(1_000_000, histogram.maxNanos());
+
+        long p50 = histogram.valueAtQuantile(0.50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 17 / 16, "p50 " + p50);
+        long p99 = histogram.valueAtQuantile(0.99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+        assertEquals(1_000_000, histogram.valueAtQuantile(1.0));
+    }
+
+    @Test
+    void countsValuesAboveTheThreshold() {
+        NanosHistogram histogram = new NanosHistogram(1_000);
+        histogram.record(999);
+        histogram.record(1_000);
+        histogram.record(1_001);
+        histogram.record(50_000);
+        assertEquals(2, histogram.countOver());
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        NanosHistogram histogram = new NanosHistogram(0);
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.maxNanos());
+        assertEquals(0, histogram.countOver());
+    }
+
+    @Test
+    void resetClearsEverything() {
+        NanosHistogram histogram = new NanosHistogram(10);
+        histogram.record(100);
+        histogram.record(1_000_000);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.countOver());
+        assertEquals(0, histogram.maxNanos());
+        assertEquals(0, histogram.valueAtQuantile(0.5));
+    }
+}
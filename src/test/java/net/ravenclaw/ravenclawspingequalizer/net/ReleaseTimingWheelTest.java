@@ -0,0 +1,161 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReleaseTimingWheelTest {
+
+    private static final long TICK = ReleaseTimingWheel.TICK_NANOS;
+
+    private EmbeddedChannel channel;
+    private long now;
+    private ReleaseTimingWheel wheel;
+    private final List<String> fired = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        // the embedded loop only hosts the ticker; the test drives ticks itself on a fake clock
+        channel = new EmbeddedChannel();
+        now = 1_000_000_000L;
+        wheel = new ReleaseTimingWheel(channel.eventLoop(), () -> now);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private ReleaseTimingWheel.Timeout timeout(String name) {
+        return new ReleaseTimingWheel.Timeout(() -> fired.add(name));
+    }
+
+    private void advanceTo(long nanos) {
+        now = nanos;
+        wheel.advance();
+    }
+
+    @Test
+    void firesOnceDeadlineTickHasPassed() {
+        ReleaseTimingWheel.Timeout a = timeout("a");
+        wheel.schedule(a, now + 10 * TICK);
+        assertTrue(wheel.isTicking());
+
+        advanceTo(now + 9 * TICK);
+        assertTrue(fired.isEmpty());
+
+        advanceTo(now + 2 * TICK);
+        assertEquals(List.of("a"), fired);
+        assertFalse(a.isScheduled());
+        assertEquals(0, wheel.pending());
+        assertFalse(wheel.isTicking());
+    }
+
+    @Test
+    void rearmingEarlierDoesNotInflatePending() {
+        ReleaseTimingWheel.Timeout a = timeout("a");
+        long start = now;
+        wheel.schedule(a, start + 20 * TICK);
+        wheel.schedule(a, start + 5 * TICK);
+        wheel.schedule(a, start + 2 * TICK);
+        assertEquals(1, wheel.pending());
+
+        advanceTo(start + 3 * TICK);
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.pending());
+        assertFalse(wheel.isTicking());
+    }
+
+    @Test
+    void rearmingLaterKeepsTheEarlierTick() {
+        ReleaseTimingWheel.Timeout a = timeout("a");
+        long start = now;
+        wheel.schedule(a, start + 3 * TICK);
+        wheel.schedule(a, start + 30 * TICK);
+        assertEquals(1, wheel.pending());
+
+        advanceTo(start + 4 * TICK);
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void cancelStopsTheTickerOnceNothingIsArmed() {
+        ReleaseTimingWheel.Timeout a = timeout("a");
+        ReleaseTimingWheel.Timeout b = timeout("b");
+        wheel.schedule(a, now + 4 * TICK);
+        wheel.schedule(b, now + 8 * TICK);
+        assertEquals(2, wheel.pending());
+
+        wheel.cancel(a);
+        assertTrue(wheel.isTicking());
+        wheel.cancel(b);
+        wheel.cancel(b);
+        assertEquals(0, wheel.pending());
+        assertFalse(wheel.isTicking());
+
+        advanceTo(now + 20 * TICK);
+        assertTrue(fired.isEmpty());
+    }
+
+    @Test
+    void timeoutsSharingASlotFireOnlyWhenTheirOwnRoundComes() {
+        ReleaseTimingWheel.Timeout near = timeout("near");
+        ReleaseTimingWheel.Timeout far = timeout("far");
+        long start = now;
+        // 512 ticks apart, so both hash to the same slot
+        wheel.schedule(near, start + 7 * TICK);
+        wheel.schedule(far, start + (7 + 512) * TICK);
+
+        advanceTo(start + 8 * TICK);
+        assertEquals(List.of("near"), fired);
+        assertTrue(far.isScheduled());
+
+        advanceTo(start + 520 * TICK);
+        assertEquals(List.of("near", "far"), fired);
+        assertFalse(wheel.isTicking());
+    }
+
+    @Test
+    void pastDeadlinesFireOnTheNextTick() {
+        ReleaseTimingWheel.Timeout a = timeout("a");
+        long start = now;
+        wheel.schedule(a, start - 50 * TICK);
+
+        advanceTo(start + TICK);
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void embeddedLoopsWithoutATerminationFutureStillGetAWheel() {
+        // EmbeddedEventLoop throws from terminationFuture()
+        assertNotNull(ReleaseTimingWheel.forExecutor(channel.eventLoop()));
+    }
+
+    @Test
+    void taskMayRearmItselfWhileExpiring() {
+        ReleaseTimingWheel.Timeout[] self = new ReleaseTimingWheel.Timeout[1];
+        self[0] = new ReleaseTimingWheel.Timeout(() -> {
+            fired.add("tick");
+            if (fired.size() < 3) {
+                wheel.schedule(self[0], now + TICK);
+            }
+        });
+        wheel.schedule(self[0], now + TICK);
+
+        for (int i = 0; i < 5; i++) {
+            advanceTo(now + 2 * TICK);
+        }
+        assertEquals(3, fired.size());
+        assertEquals(0, wheel.pending());
+        assertFalse(wheel.isTicking());
+    }
+}
@@ -0,0 +1,67 @@
+package net.ravenclaw.ravenclawspingequalizer.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+class WireIngressStampHandlerTest {
+
+    private static final long START_TIME = 0x0123_4567_89AB_CDEFL;
+
+    private static ByteBuf frame(boolean compressed, int packetId, long payload) {
+        ByteBuf frame = Unpooled.buffer();
+        if (compressed) {
+            frame.writeByte(0);
+        }
+        frame.writeByte(packetId);
+        frame.writeLong(payload);
+        return frame;
+    }
+
+    @Test
+    void readsTheStartTimeOfAPongReply() {
+        ByteBuf frame = frame(false, WireIngressStampHandler.PLAY_PONG_PACKET_ID, START_TIME);
+        assertEquals(START_TIME, WireIngressStampHandler.peekProbeStartTime(frame, false));
+        frame.release();
+    }
+
+    @Test
+    void skipsTheDataLengthOnceCompressed() {
+        ByteBuf frame = frame(true, WireIngressStampHandler.PLAY_PONG_PACKET_ID, START_TIME);
+        frame.readerIndex(0);
+        assertEquals(START_TIME, WireIngressStampHandler.peekProbeStartTime(frame, true));
+        assertEquals(0, frame.readerIndex());
+        frame.release();
+    }
+
+    @Test
+    void ignoresOtherPacketsWithTheSameLayout() {
+        // keep_alive shares the id + long shape
+        ByteBuf frame = frame(false, 0x26, START_TIME);
+        assertEquals(WireIngressStampHandler.NO_PROBE, WireIngressStampHandler.peekProbeStartTime(frame, false));
+        frame.release();
+    }
+
+    @Test
+    void ignoresDeflatedAndMisSizedFrames() {
+        ByteBuf deflated = Unpooled.buffer();
+        deflated.writeByte(9);
+        deflated.writeByte(WireIngressStampHandler.PLAY_PONG_PACKET_ID);
+        deflated.writeLong(START_TIME);
+        assertEquals(WireIngressStampHandler.NO_PROBE, WireIngressStampHandler.peekProbeStartTime(deflated, true));
+        deflated.release();
+
+        ByteBuf longer = frame(false, WireIngressStampHandler.PLAY_PONG_PACKET_ID, START_TIME);
+        longer.writeByte(0);
+        assertEquals(WireIngressStampHandler.NO_PROBE, WireIngressStampHandler.peekProbeStartTime(longer, false));
+        longer.release();
+
+        ByteBuf shorter = Unpooled.buffer();
+        shorter.writeByte(WireIngressStampHandler.PLAY_PONG_PACKET_ID);
+        shorter.writeInt(1);
+        assertEquals(WireIngressStampHandler.NO_PROBE, WireIngressStampHandler.peekProbeStartTime(shorter, false));
+        shorter.release();
+    }
+}